@@ -9,6 +9,8 @@ import ru.bclib.api.WorldDataAPI;
 import ru.bclib.api.biomes.BiomeAPI;
 import ru.bclib.api.dataexchange.DataExchangeAPI;
 import ru.bclib.api.dataexchange.handler.autosync.Chunker;
+import ru.bclib.api.dataexchange.handler.autosync.FileStream;
+import ru.bclib.api.dataexchange.handler.autosync.FileStreamAck;
 import ru.bclib.api.dataexchange.handler.autosync.HelloClient;
 import ru.bclib.api.dataexchange.handler.autosync.HelloServer;
 import ru.bclib.api.dataexchange.handler.autosync.RequestFiles;
@@ -45,6 +47,8 @@ public class BCLib implements ModInitializer {
 			HelloServer.DESCRIPTOR,
 			RequestFiles.DESCRIPTOR,
 			SendFiles.DESCRIPTOR,
+			FileStream.DESCRIPTOR,
+			FileStreamAck.DESCRIPTOR,
 			Chunker.DESCRIPTOR
 		));
 		
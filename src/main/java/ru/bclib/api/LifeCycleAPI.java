@@ -24,6 +24,7 @@ public class LifeCycleAPI {
 	private final static List<LevelLoadBiomesCall> onLoadLevelBiomes = new ArrayList<>(2);
 	private final static List<LevelLoadCall> onLoadLevel = new ArrayList<>(2);
 	private final static List<BeforeLevelLoadCall> beforeLoadLevel = new ArrayList<>(2);
+	private final static List<ServerStopCall> onServerStop = new ArrayList<>(2);
 	/**
 	 * A callback function that is used for each new ServerLevel instance
 	 */
@@ -31,6 +32,13 @@ public class LifeCycleAPI {
 		void beforeLoad();
 	}
 	
+	/**
+	 * A callback function that is used when a server stops
+	 */
+	public interface ServerStopCall {
+		void onStop(MinecraftServer server);
+	}
+	
 	/**
 	 * A callback function that is used for each new ServerLevel instance
 	 */
@@ -87,6 +95,25 @@ public class LifeCycleAPI {
 		onLoadLevel.add(call);
 	}
 	
+	/**
+	 * Register a callback that is called after a server stopped and saved its levels. Data from the
+	 * {@link WorldDataAPI} is flushed after all callbacks ran, so they can still call
+	 * {@link WorldDataAPI#saveFile(String)}.
+	 *
+	 * @param call The callback Method
+	 */
+	public static void onServerStop(ServerStopCall call){
+		onServerStop.add(call);
+	}
+	
+	/**
+	 * For internal use, You should not call this method!
+	 */
+	public static void _runServerStop(MinecraftServer server){
+		onServerStop.forEach(c -> c.onStop(server));
+		WorldDataAPI.flush();
+	}
+	
 	/**
 	 * For internal use, You should not call this method!
 	 */
@@ -1,7 +1,5 @@
 package ru.bclib.api;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
 import net.minecraft.nbt.CompoundTag;
@@ -13,9 +11,20 @@ import ru.bclib.util.ModUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 /**
@@ -26,11 +35,36 @@ import java.util.function.Consumer;
  * or {@link DataFixerAPI#initializeWorldData(File, boolean)}
  */
 public class WorldDataAPI {
-	private static final Map<String, CompoundTag> TAGS = Maps.newHashMap();
-	private static final List<String> MODS = Lists.newArrayList();
-	private static File dataDir;
+	private static final Map<String, CompoundTag> TAGS = new ConcurrentHashMap<>();
+	private static final List<String> MODS = new CopyOnWriteArrayList<>();
+	private static final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+	private static final Map<String, PendingSave> PENDING = new ConcurrentHashMap<>();
+	private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "BCLib WorldData Saver");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final int MAX_CACHED_PATHS = 64;
+	private static final Map<String, WorldDataPath> PATHS = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, WorldDataPath> eldest) {
+			return size() > MAX_CACHED_PATHS;
+		}
+	});
+	private static volatile File dataDir;
+	
+	/**
+	 * A copy of a root tag that is waiting to be written by the saver thread
+	 */
+	private record PendingSave(File dataDir, CompoundTag root) {
+	}
 	
 	public static void load(File dataDir) {
+		//make sure nothing from the previous world is still pending
+		flush();
+		TAGS.clear();
+		DIRTY.clear();
+		
 		WorldDataAPI.dataDir = dataDir;
 		MODS.stream()
 			.parallel()
@@ -82,47 +116,97 @@ public class WorldDataAPI {
 	 * @return {@link CompoundTag}
 	 */
 	public static CompoundTag getRootTag(String modID) {
-		CompoundTag root = TAGS.get(modID);
-		if (root == null) {
-			root = new CompoundTag();
-			TAGS.put(modID, root);
-		}
-		return root;
+		return TAGS.computeIfAbsent(modID, id -> new CompoundTag());
 	}
 	
 	/**
 	 * Get {@link CompoundTag} with specified path from mod cache in world data folder.
+	 * <p>
+	 * Code that accesses the same path frequently should keep a {@link WorldDataPath} instead.
 	 *
 	 * @param modID - {@link String} path to tag, dot-separated.
 	 * @return {@link CompoundTag}
 	 */
 	public static CompoundTag getCompoundTag(String modID, String path) {
-		String[] parts = path.split("\\.");
-		CompoundTag tag = getRootTag(modID);
-		for (String part : parts) {
-			if (tag.contains(part)) {
-				tag = tag.getCompound(part);
-			}
-			else {
-				CompoundTag t = new CompoundTag();
-				tag.put(part, t);
-				tag = t;
-			}
-		}
-		return tag;
+		return getPath(modID, path).getTag();
 	}
 	
 	/**
-	 * Forces mod cache file to be saved.
+	 * Get a {@link WorldDataPath} handle for the specified path. Recently used handles are cached.
+	 *
+	 * @param modID {@link String} mod ID.
+	 * @param path {@link String} path to tag, dot-separated.
+	 * @return {@link WorldDataPath}
+	 */
+	public static WorldDataPath getPath(String modID, String path) {
+		return PATHS.computeIfAbsent(modID + ':' + path, key -> WorldDataPath.of(modID, path));
+	}
+	
+	/**
+	 * Marks the mod cache as changed. The file is written the next time {@link #saveFile(String)} or
+	 * {@link #flush()} is called, at the latest when the server stops.
+	 *
+	 * @param modID {@link String} mod ID.
+	 */
+	public static void markDirty(String modID) {
+		DIRTY.add(modID);
+	}
+	
+	/**
+	 * Saves the mod cache file in the background.
+	 * <p>
+	 * The current state of the data is copied on the calling thread and written by a background thread. Repeated
+	 * calls before the file was written are combined into a single write of the latest state. Use {@link #flush()}
+	 * to wait until all files were written.
 	 *
 	 * @param modID {@link String} mod ID.
 	 */
 	public static void saveFile(String modID) {
+		DIRTY.remove(modID);
+		final PendingSave save = new PendingSave(dataDir, getRootTag(modID).copy());
+		if (PENDING.put(modID, save) == null) {
+			SAVER.execute(() -> writePending(modID));
+		}
+	}
+	
+	/**
+	 * Saves all changed mod cache files and waits until every pending write finished.
+	 */
+	public static void flush() {
+		for (String modID : DIRTY) {
+			saveFile(modID);
+		}
+		
+		try {
+			SAVER.submit(() -> {}).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			BCLib.LOGGER.error("World data saving failed", e);
+		}
+	}
+	
+	private static void writePending(String modID) {
+		final PendingSave save = PENDING.remove(modID);
+		if (save == null || save.dataDir == null) {
+			return;
+		}
+		
 		try {
-			if (!dataDir.exists()) {
-				dataDir.mkdirs();
+			if (!save.dataDir.exists()) {
+				save.dataDir.mkdirs();
+			}
+			final File file = new File(save.dataDir, modID + ".nbt");
+			final File tempFile = new File(save.dataDir, modID + ".nbt.tmp");
+			NbtIo.writeCompressed(save.root, tempFile);
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 			}
-			NbtIo.writeCompressed(getRootTag(modID), new File(dataDir, modID + ".nbt"));
 		}
 		catch (IOException e) {
 			BCLib.LOGGER.error("World data saving failed", e);
@@ -0,0 +1,139 @@
+package ru.bclib.api;
+
+import net.minecraft.nbt.CompoundTag;
+
+/**
+ * A pre-parsed, dot-separated path into the {@link WorldDataAPI} storage of a mod.
+ * <p>
+ * The path is split once when the handle is created. The {@link CompoundTag} it points to is resolved (and created
+ * if needed) on first access and cached, so repeated reads and writes, for example from tick handlers, do not need
+ * any string processing. Handles can be kept in static fields:
+ * <pre>
+ *	 private static final WorldDataPath STATS = WorldDataPath.of("mymod", "stats.global");
+ *	 ...
+ *	 STATS.putInt("visits", STATS.getInt("visits") + 1);
+ *	 STATS.markDirty();
+ * </pre>
+ * Every access checks that the cached tags are still attached to each other and to the root tag of the mod. If the
+ * world data was loaded again, or a parent of the leaf was replaced by other code using {@link CompoundTag#put}, the
+ * path is resolved again from the root.
+ */
+public final class WorldDataPath {
+	public final String modID;
+	public final String path;
+	private final String[] parts;
+
+	private volatile CompoundTag[] resolved;
+
+	private WorldDataPath(String modID, String path) {
+		this.modID = modID;
+		this.path = path;
+		this.parts = path.split("\\.");
+	}
+
+	/**
+	 * Creates a new handle.
+	 *
+	 * @param modID {@link String} mod ID.
+	 * @param path {@link String} path to tag, dot-separated.
+	 * @return A new {@link WorldDataPath}
+	 */
+	public static WorldDataPath of(String modID, String path) {
+		return new WorldDataPath(modID, path);
+	}
+
+	/**
+	 * Get the {@link CompoundTag} this path points to, missing tags along the path are created.
+	 *
+	 * @return {@link CompoundTag}
+	 */
+	public CompoundTag getTag() {
+		final CompoundTag root = WorldDataAPI.getRootTag(modID);
+		final CompoundTag[] current = resolved;
+		if (current != null && isAttached(root, current)) {
+			return current[parts.length];
+		}
+
+		//the root followed by the tag for each part of the path
+		final CompoundTag[] chain = new CompoundTag[parts.length + 1];
+		CompoundTag tag = root;
+		chain[0] = tag;
+		for (int i = 0; i < parts.length; i++) {
+			final String part = parts[i];
+			if (tag.contains(part)) {
+				tag = tag.getCompound(part);
+			}
+			else {
+				CompoundTag t = new CompoundTag();
+				tag.put(part, t);
+				tag = t;
+			}
+			chain[i + 1] = tag;
+		}
+		resolved = chain;
+		return tag;
+	}
+
+	private boolean isAttached(CompoundTag root, CompoundTag[] chain) {
+		if (chain[0] != root) {
+			return false;
+		}
+		for (int i = 0; i < parts.length; i++) {
+			if (chain[i].get(parts[i]) != chain[i + 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getInt(String key) {
+		return getTag().getInt(key);
+	}
+
+	public void putInt(String key, int value) {
+		getTag().putInt(key, value);
+	}
+
+	public long getLong(String key) {
+		return getTag().getLong(key);
+	}
+
+	public void putLong(String key, long value) {
+		getTag().putLong(key, value);
+	}
+
+	public String getString(String key) {
+		return getTag().getString(key);
+	}
+
+	public void putString(String key, String value) {
+		getTag().putString(key, value);
+	}
+
+	public boolean getBoolean(String key) {
+		return getTag().getBoolean(key);
+	}
+
+	public void putBoolean(String key, boolean value) {
+		getTag().putBoolean(key, value);
+	}
+
+	/**
+	 * Marks the storage of the mod as changed, see {@link WorldDataAPI#markDirty(String)}.
+	 */
+	public void markDirty() {
+		WorldDataAPI.markDirty(modID);
+	}
+
+	/**
+	 * Saves the storage of the mod, see {@link WorldDataAPI#saveFile(String)}.
+	 */
+	public void save() {
+		WorldDataAPI.saveFile(modID);
+	}
+
+	@Override
+	public String toString() {
+		return "WorldDataPath{" + modID + ':' + path + '}';
+	}
+}
@@ -53,6 +53,7 @@ import net.minecraft.world.level.levelgen.feature.StructureFeature;
 import net.minecraft.world.level.levelgen.feature.configurations.StructureFeatureConfiguration;
 import net.minecraft.world.level.levelgen.placement.PlacedFeature;
 import org.apache.commons.lang3.mutable.MutableInt;
+import org.apache.commons.lang3.mutable.MutableLong;
 import org.jetbrains.annotations.Nullable;
 import ru.bclib.BCLib;
 import ru.bclib.config.Configs;
@@ -74,6 +75,8 @@ import ru.bclib.world.generator.BiomePicker;
 import ru.bclib.world.structures.BCLStructureFeature;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -83,6 +86,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -104,9 +108,19 @@ public class BiomeAPI {
 	
 	private static final Map<PlacedFeature, Integer> FEATURE_ORDER = Maps.newHashMap();
 	private static final MutableInt FEATURE_ORDER_ID = new MutableInt(0);
+	private static final Map<List<PlacedFeature>, List<PlacedFeature>> SORTED_FEATURES = Maps.newConcurrentMap();
+	// Modifications also change registries that are reset for every world, so this is cleared in prepareWorldData
+	private static final Map<Biome, Set<BiConsumer<ResourceLocation, Biome>>> APPLIED_MODIFICATIONS = new WeakHashMap<>();
+	// Step features are added to the Biome instance itself, which survives between worlds
+	private static final Set<Biome> STEP_FEATURES_ADDED = Collections.newSetFromMap(new WeakHashMap<>());
+	// Biomes are shared between dimensions, so every BiomeSource remembers the generation its features were built for
+	private static final Map<BiomeSource, Integer> SOURCE_GENERATIONS = new WeakHashMap<>();
+	private static int modificationGeneration = 0;
 	
 	private final static Map<StructureID, BiConsumer<Map<StructureFeature<?>, Multimap<ConfiguredStructureFeature<?, ?>, ResourceKey<Biome>>>, Map<StructureFeature<?>, StructureFeatureConfiguration>>> STRUCTURE_STARTS = new HashMap<>();
 	private static final Map<ResourceKey, List<BiConsumer<ResourceLocation, Biome>>> MODIFICATIONS = Maps.newHashMap();
+	private static final Map<BiConsumer<ResourceLocation, Biome>, String> MODIFICATION_NAMES = Maps.newIdentityHashMap();
+	private static final long SLOW_MODIFICATION_NS = 50 * 1000000L;
 	private static final Map<ResourceLocation, SurfaceRules.RuleSource> SURFACE_RULES = Maps.newHashMap();
 	private static final Set<NoiseGeneratorSettings> NOISE_GENERATOR_SETTINGS = new HashSet<>();
 	
@@ -168,6 +182,7 @@ public class BiomeAPI {
 	 */
 	public static void registerBiomeSource(BiomeSource source){
 		worldSources.add(source);
+		SOURCE_GENERATIONS.put(source, modificationGeneration);
 	}
 	
 	/**
@@ -180,6 +195,8 @@ public class BiomeAPI {
 		STRUCTURE_STARTS.clear();
 		worldSources.clear();
 		NOISE_GENERATOR_SETTINGS.clear();
+		SORTED_FEATURES.clear();
+		APPLIED_MODIFICATIONS.clear();
 	}
 	
 	/**
@@ -473,8 +490,34 @@ public class BiomeAPI {
 	 * @param modification {@link BiConsumer} with {@link ResourceKey} biome ID and {@link Biome} parameters.
 	 */
 	public static void registerBiomeModification(ResourceKey dimensionID, BiConsumer<ResourceLocation, Biome> modification) {
+		registerBiomeModification(dimensionID, getCallerName(), modification);
+	}
+	
+	/**
+	 * Registers new biome modification for specified dimension. Will work both for mod and datapack biomes.
+	 * @param dimensionID {@link ResourceLocation} dimension ID, example: Level.OVERWORLD or "minecraft:overworld".
+	 * @param name name of the modification (for example your mod ID), used when modification timings are reported.
+	 * @param modification {@link BiConsumer} with {@link ResourceKey} biome ID and {@link Biome} parameters.
+	 */
+	public static void registerBiomeModification(ResourceKey dimensionID, String name, BiConsumer<ResourceLocation, Biome> modification) {
 		List<BiConsumer<ResourceLocation, Biome>> modifications = MODIFICATIONS.computeIfAbsent(dimensionID, k -> Lists.newArrayList());
 		modifications.add(modification);
+		MODIFICATION_NAMES.put(modification, name);
+	}
+	
+	/**
+	 * Names a modification after the method that registered it. Modifications are usually lambdas, and the
+	 * generated class names of lambdas don't tell which mod they belong to.
+	 */
+	private static String getCallerName() {
+		return StackWalker
+			.getInstance()
+			.walk(frames -> frames
+				.filter(frame -> !frame.getClassName().equals(BiomeAPI.class.getName()))
+				.findFirst()
+				.map(frame -> frame.getClassName() + "#" + frame.getMethodName())
+				.orElse("unknown")
+			);
 	}
 	
 	/**
@@ -525,29 +568,140 @@ public class BiomeAPI {
 		
 		List<BiConsumer<ResourceLocation, Biome>> modifications = MODIFICATIONS.get(level.dimension());
 		if (modifications == null) {
-			biomes.forEach(biome -> sortBiomeFeatures(biome));
-			return;
+			sortBiomeFeatures(biomes);
+		}
+		else {
+			Map<BiConsumer<ResourceLocation, Biome>, MutableLong> timings = Maps.newIdentityHashMap();
+			List<Biome> changedBiomes = Lists.newArrayList();
+			for (Biome biome : biomes) {
+				if (applyModificationsToBiome(modifications, biome, timings)) {
+					changedBiomes.add(biome);
+				}
+			}
+			logModificationTimings(level, timings);
+			
+			if (!changedBiomes.isEmpty()) {
+				sortBiomeFeatures(changedBiomes);
+				modificationGeneration++;
+			}
 		}
 		
-		biomes.forEach(biome -> {
-			applyModificationsToBiome(modifications, biome);
-		});
-		
-		((BiomeSourceAccessor) source).bclRebuildFeatures();
+		// A source can also be stale if another dimension modified one of its biomes after it was built
+		Integer sourceGeneration = SOURCE_GENERATIONS.get(source);
+		if (sourceGeneration == null || sourceGeneration != modificationGeneration) {
+			((BiomeSourceAccessor) source).bclRebuildFeatures();
+			SOURCE_GENERATIONS.put(source, modificationGeneration);
+		}
 	}
-
-	private static void applyModificationsToBiome(List<BiConsumer<ResourceLocation, Biome>> modifications, Biome biome) {
+	
+	/**
+	 * Applies modifications that were not applied to this {@link Biome} instance in the current world yet.
+	 * Modifications change shared registries (structures, noise settings), so they are always called on the current thread.
+	 * @return {@code true} if biome was changed and its features should be sorted.
+	 */
+	static boolean applyModificationsToBiome(List<BiConsumer<ResourceLocation, Biome>> modifications, Biome biome, Map<BiConsumer<ResourceLocation, Biome>, MutableLong> timings) {
+		Set<BiConsumer<ResourceLocation, Biome>> applied = APPLIED_MODIFICATIONS.get(biome);
+		final boolean firstApply = applied == null;
+		if (firstApply) {
+			applied = Sets.newIdentityHashSet();
+			APPLIED_MODIFICATIONS.put(biome, applied);
+		}
+		
 		ResourceLocation biomeID = getBiomeID(biome);
-		modifications.forEach(consumer -> {
-			consumer.accept(biomeID, biome);
-		});
+		boolean changed = firstApply;
+		for (BiConsumer<ResourceLocation, Biome> consumer : modifications) {
+			if (applied.add(consumer)) {
+				long start = System.nanoTime();
+				consumer.accept(biomeID, biome);
+				timings.computeIfAbsent(consumer, c -> new MutableLong()).add(System.nanoTime() - start);
+				changed = true;
+			}
+		}
+		
+		if (!changed) {
+			return false;
+		}
+		
+		if (STEP_FEATURES_ADDED.add(biome)) {
+			final BCLBiome bclBiome = BiomeAPI.getBiome(biome);
+			if (bclBiome != null) {
+				addStepFeaturesToBiome(biome, bclBiome.getFeatures());
+			}
+		}
 		
-		final BCLBiome bclBiome = BiomeAPI.getBiome(biome);
-		if (bclBiome != null) {
-			addStepFeaturesToBiome(biome, bclBiome.getFeatures());
+		return true;
+	}
+	
+	private static void logModificationTimings(ServerLevel level, Map<BiConsumer<ResourceLocation, Biome>, MutableLong> timings) {
+		if (timings.isEmpty()) {
+			return;
 		}
 		
-		sortBiomeFeatures(biome);
+		List<Entry<BiConsumer<ResourceLocation, Biome>, MutableLong>> entries = Lists.newArrayList(timings.entrySet());
+		entries.sort((e1, e2) -> Long.compare(e2.getValue().longValue(), e1.getValue().longValue()));
+		long total = entries.stream().mapToLong(entry -> entry.getValue().longValue()).sum();
+		
+		Entry<BiConsumer<ResourceLocation, Biome>, MutableLong> slowest = entries.get(0);
+		final String message = "Applied {} biome modifications to {} in {} ms, slowest: {} ({} ms)";
+		final Object[] args = {
+			entries.size(),
+			level.dimension().location(),
+			total / 1000000,
+			getModificationName(slowest.getKey()),
+			slowest.getValue().longValue() / 1000000
+		};
+		// The summary is only worth reporting on every level load if a single modification is slow
+		if (slowest.getValue().longValue() > SLOW_MODIFICATION_NS) {
+			BCLib.LOGGER.info(message, args);
+		}
+		else {
+			BCLib.LOGGER.debug(message, args);
+		}
+		entries.forEach(entry -> BCLib.LOGGER.debug(
+			"  {}: {} ms",
+			getModificationName(entry.getKey()),
+			entry.getValue().longValue() / 1000000.0
+		));
+	}
+	
+	private static String getModificationName(BiConsumer<ResourceLocation, Biome> modification) {
+		String name = MODIFICATION_NAMES.get(modification);
+		return name == null ? modification.getClass().getName() : name;
+	}
+	
+	/**
+	 * Sorts features of all given biomes in two passes: sorted lists are computed in parallel first
+	 * (each distinct list only once), then they are set into the biomes on the current thread.
+	 * @param biomes {@link Collection} of {@link Biome} to sort features in.
+	 */
+	private static void sortBiomeFeatures(Collection<Biome> biomes) {
+		initFeatureOrder();
+		
+		List<BiomeGenerationSettingsAccessor> accessors = biomes
+			.stream()
+			.map(biome -> (BiomeGenerationSettingsAccessor) biome.getGenerationSettings())
+			.toList();
+		
+		// Feature order IDs are assigned sequentially, so the order doesn't depend on thread scheduling
+		accessors.forEach(accessor -> accessor.bclib_getFeatures().forEach(step -> step.forEach(provider -> {
+			FEATURE_ORDER.computeIfAbsent(provider.get(), f -> FEATURE_ORDER_ID.getAndIncrement());
+		})));
+		
+		List<List<List<PlacedFeature>>> sorted = accessors
+			.parallelStream()
+			.map(accessor -> accessor
+				.bclib_getFeatures()
+				.stream()
+				.map(step -> SORTED_FEATURES.computeIfAbsent(step.stream().map(Supplier::get).toList(), BiomeAPI::getSortedFeatures))
+				.toList()
+			)
+			.toList();
+		
+		for (int i = 0; i < accessors.size(); i++) {
+			List<List<Supplier<PlacedFeature>>> featureList = Lists.newArrayList();
+			sorted.get(i).forEach(step -> featureList.add(step.stream().map(feature -> (Supplier<PlacedFeature>) () -> feature).collect(Collectors.toList())));
+			accessors.get(i).bclib_setFeatures(featureList);
+		}
 	}
 
 	public static void sortBiomeFeatures(Biome biome) {
@@ -952,24 +1106,39 @@ public class BiomeAPI {
 	private static void sortFeatures(List<Supplier<PlacedFeature>> features) {
 		initFeatureOrder();
 		
-		Set<PlacedFeature> featuresWithoutDuplicates = Sets.newHashSet();
-		features.forEach(provider -> featuresWithoutDuplicates.add(provider.get()));
-		
-		if (featuresWithoutDuplicates.size() != features.size()) {
-			features.clear();
-			featuresWithoutDuplicates.forEach(feature -> features.add(() -> feature));
+		List<PlacedFeature> content = features.stream().map(Supplier::get).toList();
+		List<PlacedFeature> sorted = SORTED_FEATURES.computeIfAbsent(content, BiomeAPI::getSortedFeatures);
+		if (sorted.equals(content)) {
+			return;
 		}
 		
-		features.forEach(provider -> {
-			PlacedFeature feature = provider.get();
-			FEATURE_ORDER.computeIfAbsent(feature, f -> FEATURE_ORDER_ID.getAndIncrement());
+		features.clear();
+		sorted.forEach(feature -> features.add(() -> feature));
+	}
+	
+	/**
+	 * Removes duplicates and sorts features using {@code FEATURE_ORDER}. Result is cached by list content
+	 * in {@code SORTED_FEATURES}, so each distinct feature list is only sorted once.
+	 * Doesn't modify {@code FEATURE_ORDER} if all features already have an ID, so it can be called in parallel.
+	 * @param features {@link List} of {@link PlacedFeature} to sort.
+	 * @return new immutable sorted {@link List}.
+	 */
+	private static List<PlacedFeature> getSortedFeatures(List<PlacedFeature> features) {
+		Set<PlacedFeature> featuresWithoutDuplicates = Sets.newLinkedHashSet(features);
+		featuresWithoutDuplicates.forEach(feature -> {
+			if (!FEATURE_ORDER.containsKey(feature)) {
+				FEATURE_ORDER.put(feature, FEATURE_ORDER_ID.getAndIncrement());
+			}
 		});
 		
-		features.sort((f1, f2) -> {
-			int v1 = FEATURE_ORDER.getOrDefault(f1.get(), 70000);
-			int v2 = FEATURE_ORDER.getOrDefault(f2.get(), 70000);
-			return Integer.compare(v1, v2);
-		});
+		return featuresWithoutDuplicates
+			.stream()
+			.sorted((f1, f2) -> {
+				int v1 = FEATURE_ORDER.getOrDefault(f1, 70000);
+				int v2 = FEATURE_ORDER.getOrDefault(f2, 70000);
+				return Integer.compare(v1, v2);
+			})
+			.toList();
 	}
 	
 	private static void configureBiome(BCLBiome biome) {
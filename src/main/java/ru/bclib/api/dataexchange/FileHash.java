@@ -6,8 +6,9 @@ import ru.bclib.BCLib;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -108,25 +109,9 @@ public class FileHash {
 	 */
 	public static FileHash create(File file) {
 		if (!file.exists()) return createForEmpty(ERR_DOES_NOT_EXIST);
-		final Path path = file.toPath();
-		
-		int size = 0;
-		byte[] md5 = new byte[0];
-		int value = 0;
 		
 		try {
-			byte[] data = Files.readAllBytes(path);
-			
-			size = data.length;
-			
-			value = size > 0 ? (data[size / 3] | (data[size / 2] << 8) | (data[size / 5] << 16)) : -1;
-			if (size > 20) value |= data[20] << 24;
-			
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			md.update(data);
-			md5 = md.digest();
-			
-			return new FileHash(md5, size, value);
+			return FileHashCache.get(file);
 		}
 		catch (IOException e) {
 			BCLib.LOGGER.error("Failed to read file: " + file);
@@ -139,6 +124,139 @@ public class FileHash {
 		return createForEmpty(ERR_IO_ERROR);
 	}
 	
+	/**
+	 * Create a new {@link FileHash} for data that is already in memory.
+	 *
+	 * @param data The content
+	 * @return A new Instance, that is equal to the instance created for a file with the same content
+	 */
+	public static FileHash create(byte[] data) {
+		final int size = data.length;
+		int value = size > 0 ? (data[size / 3] | (data[size / 2] << 8) | (data[size / 5] << 16)) : -1;
+		if (size > 20) value |= data[20] << 24;
+		
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			return new FileHash(md.digest(data), size, value);
+		}
+		catch (NoSuchAlgorithmException e) {
+			BCLib.LOGGER.error("Unable to build hash for data");
+		}
+		return createForEmpty(ERR_IO_ERROR);
+	}
+	
+	/**
+	 * Calculates the hash of a file without consulting the {@link FileHashCache}. The file is streamed through a
+	 * reusable buffer, so it is never loaded into memory as a whole.
+	 *
+	 * @param file The input file
+	 * @return A new Instance
+	 */
+	static FileHash compute(File file) throws IOException, NoSuchAlgorithmException {
+		final MessageDigest md = MessageDigest.getInstance("MD5");
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE) {
+				throw new IOException("File is too large: " + file);
+			}
+			final int size = (int) fileSize;
+			
+			int value = size > 0 ? (byteAt(channel, size / 3) | (byteAt(channel, size / 2) << 8) | (byteAt(channel, size / 5) << 16)) : -1;
+			if (size > 20) value |= byteAt(channel, 20) << 24;
+			
+			final ByteBuffer buffer = BUFFER.get();
+			channel.position(0);
+			buffer.clear();
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+			
+			return new FileHash(md.digest(), size, value);
+		}
+	}
+	
+	/**
+	 * Builds a {@link FileHash} for content that arrives in several pieces, for example while it is received from
+	 * the network. The size of the content has to be known in advance.
+	 */
+	public static class Incremental {
+		private final MessageDigest md;
+		private final int size;
+		private long position = 0;
+		private int value;
+		
+		/**
+		 * @param size The expected size of the content
+		 */
+		public Incremental(int size) throws NoSuchAlgorithmException {
+			this.md = MessageDigest.getInstance("MD5");
+			this.size = size;
+			this.value = size > 0 ? 0 : -1;
+		}
+		
+		/**
+		 * Adds the next piece of content.
+		 */
+		public void update(byte[] data, int offset, int length) {
+			md.update(data, offset, length);
+			//same positions as in create(byte[])
+			if (size > 0) {
+				value |= sample(data, offset, length, size / 3);
+				value |= sample(data, offset, length, size / 2) << 8;
+				value |= sample(data, offset, length, size / 5) << 16;
+				if (size > 20) value |= sample(data, offset, length, 20) << 24;
+			}
+			position += length;
+		}
+		
+		private int sample(byte[] data, int offset, int length, long at) {
+			return at >= position && at < position + length ? data[offset + (int) (at - position)] : 0;
+		}
+		
+		/**
+		 * @return The number of bytes that were added so far
+		 */
+		public long getPosition() {
+			return position;
+		}
+		
+		/**
+		 * @return The md5-hash of the content that was added so far, further content can still be added
+		 */
+		public byte[] getPrefixMd5() {
+			try {
+				return ((MessageDigest) md.clone()).digest();
+			}
+			catch (CloneNotSupportedException e) {
+				throw new IllegalStateException("MD5 can not be cloned", e);
+			}
+		}
+		
+		/**
+		 * @return The hash of the content, the size is the number of bytes that were actually added
+		 */
+		public FileHash finish() {
+			return new FileHash(md.digest(), (int) position, value);
+		}
+	}
+	
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+	
+	/**
+	 * Reads the (signed) byte at the given position.
+	 */
+	private static int byteAt(FileChannel channel, long position) throws IOException {
+		final ByteBuffer one = ByteBuffer.allocate(1);
+		while (one.hasRemaining()) {
+			if (channel.read(one, position + one.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		return one.get(0);
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -0,0 +1,145 @@
+package ru.bclib.api.dataexchange;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import ru.bclib.BCLib;
+import ru.bclib.config.Configs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of {@link FileHash}es, keyed by the absolute path, size and modification time of a file.
+ * <p>
+ * Files that did not change since they were last hashed are never read again. The index is stored in
+ * {@code config/bclib/cache/file_hashes.nbt}. When {@link ru.bclib.config.ServerConfig#VERIFY_HASH_CACHE} is
+ * enabled, every file is hashed again and mismatches with the index are logged.
+ */
+public class FileHashCache {
+	private static final int VERSION = 1;
+	/**
+	 * Files modified less than this many ms before they were hashed are not cached, because a later change within
+	 * the same timestamp granularity would go unnoticed.
+	 */
+	private static final long RACY_WINDOW = 2000;
+	private static final Path CACHE_FILE = FabricLoader.getInstance()
+													   .getConfigDir()
+													   .resolve(BCLib.MOD_ID)
+													   .resolve("cache")
+													   .resolve("file_hashes.nbt");
+
+	private record Entry(long size, long modified, FileHash hash) {
+	}
+
+	private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+	private static volatile boolean loaded;
+	private static volatile boolean dirty;
+
+	/**
+	 * Returns the hash of a file, reading the file only if it is not in the index or changed since it was indexed.
+	 * @param file An existing file
+	 * @return The hash of the file
+	 */
+	static FileHash get(File file) throws IOException, NoSuchAlgorithmException {
+		load();
+		final Path path = file.toPath().toAbsolutePath().normalize();
+		final String key = path.toString();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final long size = attributes.size();
+		final long modified = attributes.lastModifiedTime().toMillis();
+
+		final Entry cached = ENTRIES.get(key);
+		final boolean valid = cached != null && cached.size == size && cached.modified == modified;
+		final boolean verify = Configs.SERVER_CONFIG.isVerifyingHashCache();
+		if (valid && !verify) {
+			return cached.hash;
+		}
+
+		final FileHash hash = FileHash.compute(file);
+		if (valid && !cached.hash.equals(hash)) {
+			BCLib.LOGGER.warning("Cached hash for " + key + " is outdated (" + cached.hash + " != " + hash + ")");
+		}
+
+		if (System.currentTimeMillis() - modified > RACY_WINDOW) {
+			ENTRIES.put(key, new Entry(size, modified, hash));
+			dirty = true;
+		}
+		else {
+			ENTRIES.remove(key);
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes the index to disk if it changed. Entries for files that no longer exist are dropped.
+	 */
+	public static synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+
+		ListTag list = new ListTag();
+		ENTRIES.entrySet().removeIf(e -> !new File(e.getKey()).exists());
+		ENTRIES.forEach((key, entry) -> {
+			CompoundTag tag = new CompoundTag();
+			tag.putString("path", key);
+			tag.putLong("size", entry.size);
+			tag.putLong("modified", entry.modified);
+			tag.putByteArray("md5", entry.hash.md5);
+			tag.putInt("hashSize", entry.hash.size);
+			tag.putInt("value", entry.hash.value);
+			list.add(tag);
+		});
+
+		CompoundTag root = new CompoundTag();
+		root.putInt("version", VERSION);
+		root.put("entries", list);
+		try {
+			Files.createDirectories(CACHE_FILE.getParent());
+			final Path tempFile = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+			NbtIo.writeCompressed(root, tempFile.toFile());
+			Files.move(tempFile, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.error("Failed to write file hash cache: " + e.getMessage());
+		}
+	}
+
+	private static synchronized void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+
+		if (!Files.exists(CACHE_FILE)) {
+			return;
+		}
+
+		try {
+			CompoundTag root = NbtIo.readCompressed(CACHE_FILE.toFile());
+			if (root.getInt("version") != VERSION) {
+				return;
+			}
+			ListTag list = root.getList("entries", Tag.TAG_COMPOUND);
+			for (int i = 0; i < list.size(); i++) {
+				CompoundTag tag = list.getCompound(i);
+				FileHash hash = new FileHash(tag.getByteArray("md5"), tag.getInt("hashSize"), tag.getInt("value"));
+				ENTRIES.put(tag.getString("path"), new Entry(tag.getLong("size"), tag.getLong("modified"), hash));
+			}
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Failed to read file hash cache: " + e.getMessage());
+		}
+	}
+}
@@ -3,6 +3,7 @@ package ru.bclib.api.dataexchange.handler.autosync;
 import net.minecraft.network.FriendlyByteBuf;
 import ru.bclib.BCLib;
 import ru.bclib.api.dataexchange.DataHandler;
+import ru.bclib.api.dataexchange.FileHash;
 import ru.bclib.api.dataexchange.SyncFileHash;
 import ru.bclib.api.dataexchange.handler.autosync.AutoSync.NeedTransferPredicate;
 import ru.bclib.api.dataexchange.handler.autosync.SyncFolderDescriptor.SubFile;
@@ -27,15 +28,19 @@ class AutoFileSyncEntry extends AutoSyncID {
 		}
 		
 		@Override
-		public int serializeContent(FriendlyByteBuf buf) {
-			int res = super.serializeContent(buf);
+		protected void serializeTrailer(FriendlyByteBuf buf) {
 			DataHandler.writeString(buf, relFile.toString());
-			
-			return res;
 		}
 		
 		static AutoFileSyncEntry.ForDirectFileRequest finishDeserializeContent(String syncID, FriendlyByteBuf buf) {
-			final String relFile = DataHandler.readString(buf);
+			return forRelativePath(syncID, DataHandler.readString(buf));
+		}
+		
+		/**
+		 * @return The entry for a file in a sync folder, or {@code null} if the folder is unknown or the path
+		 * points outside of it
+		 */
+		static AutoFileSyncEntry.ForDirectFileRequest forRelativePath(String syncID, String relFile) {
 			SyncFolderDescriptor desc = AutoSync.getSyncFolderDescriptor(syncID);
 			if (desc != null) {
 				//ensures that the file is not above the base-folder
@@ -76,10 +81,8 @@ class AutoFileSyncEntry extends AutoSyncID {
 		}
 		
 		@Override
-		public int serializeContent(FriendlyByteBuf buf) {
-			final int res = super.serializeContent(buf);
+		protected void serializeTrailer(FriendlyByteBuf buf) {
 			buf.writeInt(ModUtil.convertModVersion(version));
-			return res;
 		}
 		
 		static AutoFileSyncEntry.ForModFileRequest finishDeserializeContent(String modID, FriendlyByteBuf buf) {
@@ -96,7 +99,7 @@ class AutoFileSyncEntry extends AutoSyncID {
 	public final NeedTransferPredicate needTransfer;
 	public final File fileName;
 	public final boolean requestContent;
-	private SyncFileHash hash;
+	private volatile SyncFileHash hash;
 	
 	AutoFileSyncEntry(String modID, File fileName, boolean requestContent, NeedTransferPredicate needTransfer) {
 		this(modID, fileName.getName(), fileName, requestContent, needTransfer);
@@ -117,6 +120,14 @@ class AutoFileSyncEntry extends AutoSyncID {
 		return hash;
 	}
 	
+	/**
+	 * Forces the hash to be calculated again on the next call to {@link #getFileHash()}.
+	 */
+	void invalidateHash() {
+		hash = null;
+		AutoSync.invalidateHelloPayload();
+	}
+	
 	public byte[] getContent() {
 		if (!fileName.exists()) return new byte[0];
 		final Path path = fileName.toPath();
@@ -131,27 +142,171 @@ class AutoFileSyncEntry extends AutoSyncID {
 	}
 	
 	public int serializeContent(FriendlyByteBuf buf) {
+		return serializeContent(buf, null, null);
+	}
+	
+	static final byte CONTENT_RAW = 0;
+	static final byte CONTENT_COMPRESSED = 1;
+	static final byte CONTENT_DELTA = 2;
+	
+	/**
+	 * The content of a file, as it is sent to the client.
+	 *
+	 * @param mode One of {@link #CONTENT_RAW}, {@link #CONTENT_COMPRESSED} or {@link #CONTENT_DELTA}
+	 * @param hash The hash of the uncompressed content, only set for deltas
+	 * @param data The encoded content
+	 */
+	record EncodedContent(byte mode, FileHash hash, byte[] data) {
+	}
+	
+	/**
+	 * Writes data that is needed to identify the file on the client after the content.
+	 */
+	protected void serializeTrailer(FriendlyByteBuf buf) {
+	}
+	
+	/**
+	 * Writes the content of the file.
+	 *
+	 * @param buf         The buffer to write to
+	 * @param compression The codec the client requested, or {@code null} if the client does not support compression
+	 *                    (and delta transfers)
+	 * @param signature   The signature of the local copy on the client, or {@code null} if there is none
+	 * @return The uncompressed size of the content
+	 */
+	public int serializeContent(FriendlyByteBuf buf, SyncCompression compression, DeltaTransfer.Signature signature) {
+		DataHandler.writeString(buf, modID);
+		DataHandler.writeString(buf, uniqueID);
+		final int length;
+		if (compression == null) {
+			length = serializeFileContent(buf);
+		}
+		else {
+			byte[] content = getContentIfAllowed();
+			EncodedContent encoded = encodeContent(content, compression, signature);
+			buf.writeInt(content.length);
+			buf.writeByte(encoded.mode);
+			if (encoded.mode == CONTENT_DELTA) {
+				encoded.hash.serialize(buf);
+			}
+			buf.writeByteArray(encoded.data);
+			length = content.length;
+		}
+		serializeTrailer(buf);
+		return length;
+	}
+	
+	/**
+	 * Writes everything the client needs to find the matching local entry, see {@link #deserializeIdentity}.
+	 */
+	void serializeIdentity(FriendlyByteBuf buf) {
 		DataHandler.writeString(buf, modID);
 		DataHandler.writeString(buf, uniqueID);
-		return serializeFileContent(buf);
+		serializeTrailer(buf);
+	}
+	
+	/**
+	 * Reads the data written by {@link #serializeIdentity}.
+	 *
+	 * @return The local entry (or {@code null} if there is no matching entry) and the transmitted ID
+	 */
+	static Pair<AutoFileSyncEntry, AutoSyncID> deserializeIdentity(FriendlyByteBuf buf) {
+		final String modID = DataHandler.readString(buf);
+		final String uniqueID = DataHandler.readString(buf);
+		return new Pair<>(deserializeTrailer(modID, uniqueID, buf), new AutoSyncID(modID, uniqueID));
+	}
+	
+	/**
+	 * Picks the smallest representation of the content.
+	 *
+	 * @param content     The content of the file
+	 * @param compression The codec the client requested
+	 * @param signature   The signature of the local copy on the client, or {@code null} if there is none
+	 * @return The encoded content
+	 */
+	static EncodedContent encodeContent(byte[] content, SyncCompression compression, DeltaTransfer.Signature signature) {
+		final byte[] delta = signature == null ? null : DeltaTransfer.createDelta(signature, content);
+		if (delta != null) {
+			return new EncodedContent(CONTENT_DELTA, FileHash.create(content), delta);
+		}
+		
+		byte[] compressed = compression.compressCached(content);
+		//incompressible data is sent as is
+		if (compressed.length < content.length) {
+			return new EncodedContent(CONTENT_COMPRESSED, null, compressed);
+		}
+		return new EncodedContent(CONTENT_RAW, null, content);
+	}
+	
+	/**
+	 * Restores the content of a file from its encoded form.
+	 *
+	 * @param entry       The local entry, deltas are applied to its file
+	 * @param encoded     The received content
+	 * @param size        The size of the uncompressed content
+	 * @param compression The codec that was requested from the server
+	 * @return The content
+	 * @throws IOException if the content can not be decoded
+	 */
+	static byte[] decodeContent(AutoFileSyncEntry entry, EncodedContent encoded, int size, SyncCompression compression) throws IOException {
+		if (encoded.mode == CONTENT_COMPRESSED) {
+			return compression.decompress(encoded.data, size);
+		}
+		if (encoded.mode == CONTENT_DELTA) {
+			final byte[] basis = entry.fileName == null ? null : DeltaTransfer.readBasis(entry.fileName);
+			if (basis == null) throw new IOException("Local copy is missing");
+			return DeltaTransfer.applyDelta(basis, encoded.data, encoded.hash, size);
+		}
+		return encoded.data;
 	}
 	
 	public static Triple<AutoFileSyncEntry, byte[], AutoSyncID> deserializeContent(FriendlyByteBuf buf) {
+		return deserializeContent(buf, null);
+	}
+	
+	/**
+	 * Reads the content written by {@link #serializeContent(FriendlyByteBuf, SyncCompression, DeltaTransfer.Signature)}.
+	 * If the content can not be decoded, the returned entry is {@code null}.
+	 *
+	 * @param buf         The buffer to read from
+	 * @param compression The codec that was requested from the server, or {@code null}
+	 */
+	public static Triple<AutoFileSyncEntry, byte[], AutoSyncID> deserializeContent(FriendlyByteBuf buf, SyncCompression compression) {
 		final String modID = DataHandler.readString(buf);
 		final String uniqueID = DataHandler.readString(buf);
-		byte[] data = deserializeFileContent(buf);
+		if (compression == null) {
+			byte[] data = deserializeFileContent(buf);
+			return new Triple<>(deserializeTrailer(modID, uniqueID, buf), data, new AutoSyncID(modID, uniqueID));
+		}
+		
+		final int size = buf.readInt();
+		final byte mode = buf.readByte();
+		final FileHash expectedHash = mode == CONTENT_DELTA ? FileHash.deserialize(buf) : null;
+		final byte[] encoded = buf.readByteArray(mode == CONTENT_RAW ? size : Integer.MAX_VALUE);
+		AutoFileSyncEntry entry = deserializeTrailer(modID, uniqueID, buf);
 		
-		AutoFileSyncEntry entry;
+		//deltas are applied to the local copy of the file, which is only known now
+		byte[] data = encoded;
+		if (entry != null) {
+			try {
+				data = decodeContent(entry, new EncodedContent(mode, expectedHash, encoded), size, compression);
+			}
+			catch (IOException e) {
+				BCLib.LOGGER.error("Failed to decode " + modID + "." + uniqueID + ": " + e.getMessage());
+				entry = null;
+			}
+		}
+		return new Triple<>(entry, data, new AutoSyncID(modID, uniqueID));
+	}
+	
+	private static AutoFileSyncEntry deserializeTrailer(String modID, String uniqueID, FriendlyByteBuf buf) {
 		if (AutoSyncID.ForDirectFileRequest.MOD_ID.equals(modID)) {
-			entry = AutoFileSyncEntry.ForDirectFileRequest.finishDeserializeContent(uniqueID, buf);
+			return AutoFileSyncEntry.ForDirectFileRequest.finishDeserializeContent(uniqueID, buf);
 		}
 		else if (AutoSyncID.ForModFileRequest.UNIQUE_ID.equals(uniqueID)) {
-			entry = AutoFileSyncEntry.ForModFileRequest.finishDeserializeContent(modID, buf);
+			return AutoFileSyncEntry.ForModFileRequest.finishDeserializeContent(modID, buf);
 		}
-		else {
-			entry = AutoFileSyncEntry.findMatching(modID, uniqueID);
-		}
-		return new Triple<>(entry, data, new AutoSyncID(modID, uniqueID));
+		return AutoFileSyncEntry.findMatching(modID, uniqueID);
 	}
 	
 	
@@ -194,6 +349,21 @@ class AutoFileSyncEntry extends AutoSyncID {
 		return content.length;
 	}
 	
+	/**
+	 * @return {@code false} if the file is outside the game folder and must not be sent
+	 */
+	boolean isAllowedToSend() {
+		return PathUtil.isChildOf(PathUtil.GAME_FOLDER, fileName.toPath());
+	}
+	
+	private byte[] getContentIfAllowed() {
+		if (!isAllowedToSend()){
+			BCLib.LOGGER.error(fileName + " is not within game folder " + PathUtil.GAME_FOLDER + ". Pretending it does not exist.");
+			return new byte[0];
+		}
+		return getContent();
+	}
+	
 	private static byte[] deserializeFileContent(FriendlyByteBuf buf) {
 		byte[] data;
 		int size = buf.readInt();
@@ -13,6 +13,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
 public class AutoSync {
@@ -60,6 +61,21 @@ public class AutoSync {
 		onWriteCallbacks.add(callback);
 	}
 	private static final List<AutoFileSyncEntry> autoSyncFiles = new ArrayList<>(4);
+	private static final AtomicInteger helloRevision = new AtomicInteger();
+	
+	/**
+	 * @return A number that changes whenever the offered files or folders change
+	 */
+	static int getHelloRevision() {
+		return helloRevision.get();
+	}
+	
+	/**
+	 * Called whenever an offered file or folder changed, the Hello sent to clients needs to be rebuilt.
+	 */
+	static void invalidateHelloPayload() {
+		helloRevision.incrementAndGet();
+	}
 	
 	public static List<AutoFileSyncEntry> getAutoSyncFiles() {
 		return autoSyncFiles;
@@ -83,6 +99,7 @@ public class AutoSync {
 			BCLib.LOGGER.error(fileName + " is outside of Game Folder " + PathUtil.GAME_FOLDER);
 		} else {
 			autoSyncFiles.add(new AutoFileSyncEntry(modID, fileName, requestContent, needTransfer));
+			invalidateHelloPayload();
 		}
 	}
 	
@@ -106,6 +123,7 @@ public class AutoSync {
 			BCLib.LOGGER.error(fileName + " is outside of Game Folder " + PathUtil.GAME_FOLDER);
 		} else {
 			autoSyncFiles.add(new AutoFileSyncEntry(modID, uniqueID, fileName, requestContent, needTransfer));
+			invalidateHelloPayload();
 		}
 	}
 	
@@ -141,6 +159,10 @@ public class AutoSync {
 			syncFolderDescriptions.forEach(desc -> desc.loadCache());
 		}
 		
+		if (Configs.SERVER_CONFIG.isWatchingFiles()) {
+			AutoSyncWatcher.start();
+		}
+		
 		if (!didRegisterAdditionalMods && Configs.SERVER_CONFIG.isOfferingMods()){
 			didRegisterAdditionalMods = true;
 			List<String> modIDs = Configs.SERVER_CONFIG.get(ServerConfig.ADDITIONAL_MODS);
@@ -178,6 +200,7 @@ public class AutoSync {
 			}
 			else {
 				syncFolderDescriptions.add(desc);
+				invalidateHelloPayload();
 			}
 		}
 		else {
@@ -0,0 +1,230 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import ru.bclib.BCLib;
+import ru.bclib.api.LifeCycleAPI;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps the server side AutoSync index up to date while the server is running.
+ * <p>
+ * All registered sync folders and the folders of all auto sync files are watched for changes. Events for other files
+ * in those folders are ignored. Events are collected until no new event arrived for {@link #DEBOUNCE_MS}, or for at
+ * most {@link #MAX_DELAY_MS} while files keep changing, then only the affected entries are hashed again. A rename
+ * is reported as a delete of the old and a create of the new name, so both paths are updated independently. If the
+ * event queue overflows, all caches are dropped and rebuilt on the next request.
+ */
+class AutoSyncWatcher {
+	private static final long DEBOUNCE_MS = 500;
+	private static final long MAX_DELAY_MS = 5000;
+	private static AutoSyncWatcher INSTANCE;
+	private static boolean registeredStopHandler = false;
+
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Set<Path> changed = new HashSet<>();
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private AutoSyncWatcher() throws IOException {
+		service = FileSystems.getDefault().newWatchService();
+		thread = new Thread(this::run, "BCLib AutoSync Watcher");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts watching all registered sync folders and auto sync files, if that did not happen already.
+	 */
+	static synchronized void start() {
+		if (INSTANCE != null) {
+			return;
+		}
+
+		try {
+			AutoSyncWatcher watcher = new AutoSyncWatcher();
+			AutoSync.syncFolderDescriptions.forEach(desc -> watcher.registerRecursive(desc.localFolder));
+			AutoSync.getAutoSyncFiles()
+					.stream()
+					.map(e -> e.fileName.getAbsoluteFile().toPath().normalize().getParent())
+					.distinct()
+					.forEach(watcher::register);
+			watcher.thread.start();
+			INSTANCE = watcher;
+			BCLib.LOGGER.info("Watching " + watcher.keys.size() + " folders for AutoSync changes.");
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.error("Unable to watch AutoSync files: " + e.getMessage());
+			return;
+		}
+
+		if (!registeredStopHandler) {
+			registeredStopHandler = true;
+			LifeCycleAPI.onServerStop(server -> stop());
+		}
+	}
+
+	/**
+	 * @return {@code true} if changes to the offered files are currently noticed by the watcher
+	 */
+	static synchronized boolean isRunning() {
+		return INSTANCE != null;
+	}
+
+	/**
+	 * Stops the watcher. Caches stay valid until the files change, so they are dropped as well.
+	 */
+	static synchronized void stop() {
+		if (INSTANCE == null) {
+			return;
+		}
+		INSTANCE.running = false;
+		try {
+			INSTANCE.service.close();
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Failed to close AutoSync watcher: " + e.getMessage());
+		}
+		INSTANCE = null;
+		invalidateAll();
+	}
+
+	private void register(Path dir) {
+		if (dir == null || !Files.isDirectory(dir) || keys.containsValue(dir)) {
+			return;
+		}
+		try {
+			keys.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to watch " + dir + ": " + e.getMessage());
+		}
+	}
+
+	private void registerRecursive(Path root) {
+		if (!Files.isDirectory(root)) {
+			return;
+		}
+		try (Stream<Path> dirs = Files.walk(root)) {
+			dirs.filter(Files::isDirectory).forEach(this::register);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to watch " + root + ": " + e.getMessage());
+		}
+	}
+
+	private void run() {
+		long firstChange = 0;
+		long lastChange = 0;
+		while (running) {
+			final WatchKey key;
+			try {
+				key = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			if (key != null) {
+				final Path dir = keys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						BCLib.LOGGER.info("Too many AutoSync changes, the index will be rebuilt.");
+						changed.clear();
+						invalidateAll();
+						continue;
+					}
+					if (dir == null) {
+						continue;
+					}
+					final Path path = dir.resolve((Path) event.context()).normalize();
+					if (isWatched(path)) {
+						if (changed.isEmpty()) {
+							firstChange = System.currentTimeMillis();
+						}
+						changed.add(path);
+						lastChange = System.currentTimeMillis();
+					}
+				}
+
+				if (!key.reset()) {
+					keys.remove(key);
+				}
+			}
+
+			final long now = System.currentTimeMillis();
+			if (!changed.isEmpty() && (now - lastChange >= DEBOUNCE_MS || now - firstChange >= MAX_DELAY_MS)) {
+				try {
+					applyChanges();
+				}
+				catch (RuntimeException e) {
+					BCLib.LOGGER.error("Failed to update AutoSync index: " + e.getMessage());
+					invalidateAll();
+				}
+				changed.clear();
+			}
+		}
+	}
+
+	/**
+	 * The folders of auto sync files may contain other files, only paths that are offered to clients are relevant.
+	 */
+	private static boolean isWatched(Path path) {
+		for (SyncFolderDescriptor desc : AutoSync.syncFolderDescriptions) {
+			if (desc.acceptChildElements(path)) {
+				return true;
+			}
+		}
+		for (AutoFileSyncEntry entry : AutoSync.getAutoSyncFiles()) {
+			if (entry.fileName.getAbsoluteFile().toPath().normalize().equals(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void applyChanges() {
+		for (Path path : changed) {
+			if (Files.isDirectory(path)) {
+				//a folder was created or moved into a watched folder
+				registerRecursive(path);
+			}
+
+			for (SyncFolderDescriptor desc : AutoSync.syncFolderDescriptions) {
+				if (desc.acceptChildElements(path)) {
+					desc.updatePath(path);
+				}
+			}
+
+			for (AutoFileSyncEntry entry : AutoSync.getAutoSyncFiles()) {
+				if (entry.fileName.getAbsoluteFile().toPath().normalize().equals(path)) {
+					entry.invalidateHash();
+				}
+			}
+		}
+
+		BCLib.LOGGER.info("Updated AutoSync index for " + changed.size() + " changed path(s).");
+	}
+
+	private static void invalidateAll() {
+		AutoSync.syncFolderDescriptions.forEach(SyncFolderDescriptor::invalidateCache);
+		AutoSync.getAutoSyncFiles().forEach(AutoFileSyncEntry::invalidateHash);
+	}
+}
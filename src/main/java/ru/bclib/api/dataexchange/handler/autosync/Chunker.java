@@ -16,13 +16,12 @@ import ru.bclib.api.dataexchange.DataHandler;
 import ru.bclib.api.dataexchange.DataHandlerDescriptor;
 import ru.bclib.api.dataexchange.handler.DataExchange;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Used to seperate large data transfers into multiple smaller messages.
@@ -45,20 +44,18 @@ public class Chunker extends DataHandler.FromServer {
 		@Nullable
 		private final DataHandlerDescriptor descriptor;
 		
-		private static List<PacketChunkReceiver> active = new ArrayList<>(1);
+		private static final Map<UUID, PacketChunkReceiver> active = new ConcurrentHashMap<>();
 		private static PacketChunkReceiver newReceiver(@NotNull UUID uuid, int chunkCount, ResourceLocation origin){
 			DataHandlerDescriptor desc = DataExchange.getDescriptor(origin);
-			final PacketChunkReceiver r = new PacketChunkReceiver(uuid, chunkCount, desc);
-			active.add(r);
-			return r;
+			return new PacketChunkReceiver(uuid, chunkCount, desc);
 		}
 		
 		private static PacketChunkReceiver getOrCreate(@NotNull UUID uuid, int chunkCount, ResourceLocation origin){
-			return active.stream().filter(r -> r.uuid.equals(uuid)).findFirst().orElse(newReceiver(uuid, chunkCount, origin));
+			return active.computeIfAbsent(uuid, id -> newReceiver(id, chunkCount, origin));
 		}
 		
 		public static PacketChunkReceiver get(@NotNull UUID uuid){
-			return active.stream().filter(r -> r.uuid.equals(uuid)).findFirst().orElse(null);
+			return active.get(uuid);
 		}
 		
 		private PacketChunkReceiver(@NotNull UUID uuid, int chunkCount, @Nullable DataHandlerDescriptor descriptor){
@@ -109,6 +106,7 @@ public class Chunker extends DataHandler.FromServer {
 		protected void onFinish(){
 			incomingBuffer.clear();
 			incomingBuffer = null;
+			active.remove(uuid);
 			
 			final BaseDataHandler baseHandler = descriptor.INSTANCE.get();
 			if (baseHandler instanceof DataHandler.FromServer handler){
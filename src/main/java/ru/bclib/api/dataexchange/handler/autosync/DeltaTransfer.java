@@ -0,0 +1,464 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.FriendlyByteBuf;
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.FileHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * An rsync-like delta encoding for files the client already has in an older version.
+ * <p>
+ * The client splits its local copy into blocks and sends a weak rolling checksum and a truncated MD5 for each of
+ * them (a {@link Signature}) in {@link RequestFiles}. The server slides a window over the new content and replaces
+ * every block the client already has with a reference to it. The remaining bytes are sent as literals. The client
+ * rebuilds the file from its local copy and checks the result against the {@link FileHash} of the server.
+ * <p>
+ * Small files, or files where the delta would not be much smaller than the content, are sent in full.
+ */
+class DeltaTransfer {
+	/**
+	 * Files smaller than this are always sent in full
+	 */
+	static final int MIN_FILE_SIZE = 64 * 1024;
+	/**
+	 * A delta is only used, if it is smaller than this fraction of the content
+	 */
+	private static final double MAX_DELTA_RATIO = 0.75;
+	private static final int MIN_BLOCK_SIZE = 1024;
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+	private static final int MAX_BLOCKS = 1 << 20;
+
+	//number of buckets in the BlockIndex, one for every 16-bit tag of a weak checksum
+	private static final int TAG_COUNT = 1 << 16;
+
+	private static final byte OP_END = 0;
+	private static final byte OP_COPY = 1;
+	private static final byte OP_LITERAL = 2;
+
+	/**
+	 * Block checksums of a file that exists on the client.
+	 */
+	record Signature(int blockSize, int[] weak, long[] strong) {
+		void serialize(FriendlyByteBuf buf) {
+			buf.writeVarInt(blockSize);
+			buf.writeVarInt(weak.length);
+			for (int i = 0; i < weak.length; i++) {
+				buf.writeInt(weak[i]);
+				buf.writeLong(strong[i]);
+			}
+		}
+
+		static Signature deserialize(FriendlyByteBuf buf) {
+			final int blockSize = buf.readVarInt();
+			final int count = buf.readVarInt();
+			if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || count < 0 || count > MAX_BLOCKS) {
+				throw new IllegalArgumentException("Invalid delta signature (blockSize=" + blockSize + ", blocks=" + count + ")");
+			}
+			final int[] weak = new int[count];
+			final long[] strong = new long[count];
+			for (int i = 0; i < count; i++) {
+				weak[i] = buf.readInt();
+				strong[i] = buf.readLong();
+			}
+			return new Signature(blockSize, weak, strong);
+		}
+	}
+
+	/**
+	 * Returns the file the client would use as the basis for a delta of the requested file.
+	 *
+	 * @param aid The requested file
+	 * @return The local file, or {@code null} if there is no local copy
+	 */
+	static File getLocalBasis(AutoSyncID aid) {
+		File file = null;
+		if (aid instanceof AutoSyncID.ForDirectFileRequest freq) {
+			SyncFolderDescriptor desc = AutoSync.getSyncFolderDescriptor(freq.uniqueID);
+			if (desc != null && desc.acceptChildElements(desc.mapAbsolute(freq.relFile.toString()))) {
+				file = desc.mapAbsolute(freq.relFile.toString()).toFile();
+			}
+		}
+		else if (aid instanceof AutoSyncID.ForModFileRequest) {
+			file = AutoFileSyncEntry.ForModFileRequest.getLocalPathForID(aid.modID, false);
+		}
+		else {
+			AutoFileSyncEntry entry = AutoFileSyncEntry.findMatching(aid.modID, aid.uniqueID);
+			file = entry == null ? null : entry.fileName;
+		}
+		return file != null && file.isFile() && file.length() >= MIN_FILE_SIZE ? file : null;
+	}
+
+	/**
+	 * Builds the signature of a local file.
+	 *
+	 * @param data The content of the local file
+	 * @return The signature
+	 */
+	static Signature createSignature(byte[] data) {
+		final int blockSize = blockSizeFor(data.length);
+		final int count = data.length / blockSize;
+		final int[] weak = new int[count];
+		final long[] strong = new long[count];
+		final MessageDigest md = md5();
+		for (int i = 0; i < count; i++) {
+			weak[i] = weakChecksum(data, i * blockSize, blockSize);
+			strong[i] = strongChecksum(md, data, i * blockSize, blockSize);
+		}
+		return new Signature(blockSize, weak, strong);
+	}
+
+	/**
+	 * Encodes the content relative to the signature of the client.
+	 *
+	 * @param signature The signature the client sent
+	 * @param data      The content on the server
+	 * @return The encoded delta, or {@code null} if the file should be sent in full
+	 */
+	static byte[] createDelta(Signature signature, byte[] data) {
+		final int blockSize = signature.blockSize;
+		final int blockCount = signature.weak.length;
+		if (blockCount == 0 || data.length < blockSize) {
+			return null;
+		}
+
+		final BlockIndex index = new BlockIndex(signature);
+
+		final int limit = (int) (data.length * MAX_DELTA_RATIO);
+		final FriendlyByteBuf out = new FriendlyByteBuf(Unpooled.buffer(Math.min(limit, 64 * 1024)));
+		out.writeVarInt(blockSize);
+		final MessageDigest md = md5();
+		int literalStart = 0;
+		int copyStart = -1;
+		int copyCount = 0;
+
+		int pos = 0;
+		int a = 0;
+		int b = 0;
+		boolean fresh = true;
+		while (pos + blockSize <= data.length) {
+			if (fresh) {
+				a = 0;
+				b = 0;
+				for (int i = 0; i < blockSize; i++) {
+					final int x = data[pos + i] & 0xFF;
+					a += x;
+					b += (blockSize - i) * x;
+				}
+				fresh = false;
+			}
+
+			final int match = index.find((a & 0xFFFF) | (b << 16), md, data, pos);
+			if (match >= 0) {
+				if (literalStart < pos) {
+					writeCopy(out, copyStart, copyCount);
+					copyCount = 0;
+					writeLiteral(out, data, literalStart, pos);
+				}
+				if (copyCount > 0 && copyStart + copyCount == match) {
+					copyCount++;
+				}
+				else {
+					writeCopy(out, copyStart, copyCount);
+					copyStart = match;
+					copyCount = 1;
+				}
+				pos += blockSize;
+				literalStart = pos;
+				fresh = true;
+			}
+			else {
+				if (pos + blockSize < data.length) {
+					final int outgoing = data[pos] & 0xFF;
+					final int incoming = data[pos + blockSize] & 0xFF;
+					a += incoming - outgoing;
+					b += a - blockSize * outgoing;
+				}
+				pos++;
+			}
+
+			if (out.writerIndex() > limit) {
+				return null;
+			}
+		}
+
+		if (literalStart < data.length) {
+			writeCopy(out, copyStart, copyCount);
+			copyCount = 0;
+			writeLiteral(out, data, literalStart, data.length);
+		}
+		writeCopy(out, copyStart, copyCount);
+		out.writeByte(OP_END);
+
+		if (out.writerIndex() > limit) {
+			return null;
+		}
+		final byte[] result = new byte[out.writerIndex()];
+		out.readBytes(result);
+		return result;
+	}
+
+	/**
+	 * Receives the instructions of a delta.
+	 */
+	private interface DeltaTarget {
+		/**
+		 * Appends a range of the local copy.
+		 */
+		void copy(long offset, int length) throws IOException;
+
+		/**
+		 * Appends bytes that were sent by the server.
+		 */
+		void literal(byte[] data, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * Rebuilds a file from the local copy and a delta.
+	 *
+	 * @param basis    The content of the local copy the signature was built from
+	 * @param delta    The delta sent by the server
+	 * @param expected The hash of the file on the server
+	 * @param size     The size of the file on the server
+	 * @return The rebuilt content
+	 * @throws IOException if the delta is invalid or the result does not match the expected hash
+	 */
+	static byte[] applyDelta(byte[] basis, byte[] delta, FileHash expected, int size) throws IOException {
+		SyncCompression.checkDecodedSize(size);
+		final ByteBuffer result = ByteBuffer.allocate(size);
+		readDelta(delta, basis.length, new DeltaTarget() {
+			@Override
+			public void copy(long offset, int length) throws IOException {
+				reserve(length);
+				result.put(basis, (int) offset, length);
+			}
+
+			@Override
+			public void literal(byte[] data, int offset, int length) throws IOException {
+				reserve(length);
+				result.put(data, offset, length);
+			}
+
+			private void reserve(int length) throws IOException {
+				if (length > result.remaining()) {
+					throw new IOException("Delta is larger than the announced size");
+				}
+			}
+		});
+
+		if (result.hasRemaining()) {
+			throw new IOException("Delta is incomplete");
+		}
+		final byte[] data = result.array();
+		final FileHash hash = FileHash.create(data);
+		if (!hash.equals(expected)) {
+			throw new IOException("Rebuilt file does not match (" + hash + " != " + expected + ")");
+		}
+		return data;
+	}
+
+	/**
+	 * Rebuilds a file from the local copy and a delta, without loading the local copy into memory. The result is
+	 * verified by {@link PartialFile#finish}.
+	 *
+	 * @param basis The local copy the signature was built from
+	 * @param delta The delta sent by the server
+	 * @param out   The file the result is written to
+	 * @throws IOException if the delta is invalid or the local copy can not be read
+	 */
+	static void applyDelta(File basis, byte[] delta, PartialFile out) throws IOException {
+		try (FileChannel channel = FileChannel.open(basis.toPath(), StandardOpenOption.READ)) {
+			final byte[] buffer = new byte[MAX_BLOCK_SIZE];
+			readDelta(delta, channel.size(), new DeltaTarget() {
+				@Override
+				public void copy(long offset, int length) throws IOException {
+					long position = offset;
+					final long end = offset + length;
+					while (position < end) {
+						final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+						while (chunk.hasRemaining()) {
+							if (channel.read(chunk, position + chunk.position()) < 0) {
+								throw new IOException("Local copy changed during the transfer");
+							}
+						}
+						out.write(buffer, 0, chunk.limit());
+						position += chunk.limit();
+					}
+				}
+
+				@Override
+				public void literal(byte[] data, int offset, int length) throws IOException {
+					out.write(data, offset, length);
+				}
+			});
+		}
+	}
+
+	private static void readDelta(byte[] delta, long basisLength, DeltaTarget target) throws IOException {
+		final FriendlyByteBuf in = new FriendlyByteBuf(Unpooled.wrappedBuffer(delta));
+		try {
+			final int blockSize = in.readVarInt();
+			if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+				throw new IOException("Invalid block size " + blockSize);
+			}
+			byte op;
+			while ((op = in.readByte()) != OP_END) {
+				if (op == OP_COPY) {
+					final int start = in.readVarInt();
+					final int count = in.readVarInt();
+					final long offset = (long) start * blockSize;
+					final long length = (long) count * blockSize;
+					if (start < 0 || count < 0 || offset + length > basisLength || length > Integer.MAX_VALUE) {
+						throw new IOException("Delta references missing blocks");
+					}
+					target.copy(offset, (int) length);
+				}
+				else if (op == OP_LITERAL) {
+					final int length = in.readVarInt();
+					if (length < 0 || length > in.readableBytes()) {
+						throw new IOException("Invalid literal in delta");
+					}
+					target.literal(delta, in.readerIndex(), length);
+					in.skipBytes(length);
+				}
+				else {
+					throw new IOException("Unknown delta instruction " + op);
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Invalid delta: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Finds the blocks of a {@link Signature} by their weak checksum, like the tag table of rsync.
+	 * <p>
+	 * The blocks are sorted into buckets by a 16-bit tag of their weak checksum, so a lookup at every offset of the
+	 * content is a single array access that rarely finds a candidate.
+	 */
+	private static class BlockIndex {
+		private final Signature signature;
+		//blocks of bucket t are blocks[start[t]] to blocks[start[t + 1] - 1]
+		private final int[] start = new int[TAG_COUNT + 1];
+		private final int[] blocks;
+
+		BlockIndex(Signature signature) {
+			this.signature = signature;
+			final int[] weak = signature.weak;
+			blocks = new int[weak.length];
+			for (int w : weak) {
+				start[tag(w) + 1]++;
+			}
+			for (int t = 0; t < TAG_COUNT; t++) {
+				start[t + 1] += start[t];
+			}
+			final int[] next = Arrays.copyOf(start, TAG_COUNT);
+			for (int i = 0; i < weak.length; i++) {
+				blocks[next[tag(weak[i])]++] = i;
+			}
+		}
+
+		private static int tag(int weak) {
+			return (weak ^ (weak >>> 16)) & 0xFFFF;
+		}
+
+		/**
+		 * @return The index of the block that matches the content at pos, or {@code -1}
+		 */
+		int find(int weak, MessageDigest md, byte[] data, int pos) {
+			final int t = tag(weak);
+			final int end = start[t + 1];
+			long strong = 0;
+			boolean hashed = false;
+			for (int i = start[t]; i < end; i++) {
+				final int block = blocks[i];
+				if (signature.weak[block] != weak) {
+					continue;
+				}
+				if (!hashed) {
+					strong = strongChecksum(md, data, pos, signature.blockSize);
+					hashed = true;
+				}
+				if (signature.strong[block] == strong) {
+					return block;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private static void writeCopy(FriendlyByteBuf out, int start, int count) {
+		if (count > 0) {
+			out.writeByte(OP_COPY);
+			out.writeVarInt(start);
+			out.writeVarInt(count);
+		}
+	}
+
+	private static void writeLiteral(FriendlyByteBuf out, byte[] data, int from, int to) {
+		out.writeByte(OP_LITERAL);
+		out.writeVarInt(to - from);
+		out.writeBytes(data, from, to - from);
+	}
+
+	/**
+	 * Roughly the square root of the size, so the signature and the expected number of literal bytes stay balanced.
+	 */
+	private static int blockSizeFor(int size) {
+		final int root = Integer.highestOneBit(Math.max(1, (int) Math.sqrt(size)));
+		return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, root * 2));
+	}
+
+	private static int weakChecksum(byte[] data, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			final int x = data[offset + i] & 0xFF;
+			a += x;
+			b += (length - i) * x;
+		}
+		return (a & 0xFFFF) | (b << 16);
+	}
+
+	private static long strongChecksum(MessageDigest md, byte[] data, int offset, int length) {
+		md.update(data, offset, length);
+		final byte[] digest = md.digest();
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (digest[i] & 0xFF);
+		}
+		return result;
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	/**
+	 * Reads a local file for {@link #createSignature(byte[])} or {@link #applyDelta}.
+	 */
+	static byte[] readBasis(File file) {
+		try {
+			return Files.readAllBytes(file.toPath());
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to read " + file + " for delta transfer: " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.api.FabricLoader;
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.FileHash;
+import ru.bclib.config.Configs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed cache of files the client received through AutoSync.
+ * <p>
+ * Every received file (except mods) is copied to {@code config/bclib/cache/downloads}, named after its
+ * {@link FileHash}. Before files are requested from a server, the client looks up the hashes the server announced,
+ * and restores matching files from the cache instead of downloading them again. This helps when joining several
+ * servers that offer the same files, or when a server was rolled back.
+ * <p>
+ * The total size is limited by {@link ru.bclib.config.ClientConfig#DOWNLOAD_CACHE_SIZE}. When the limit is exceeded,
+ * the files that were used least recently are removed. Cached files are verified before they are used.
+ */
+@Environment(EnvType.CLIENT)
+class DownloadCache {
+	private static final Path CACHE_FOLDER = FabricLoader.getInstance()
+														 .getConfigDir()
+														 .resolve(BCLib.MOD_ID)
+														 .resolve("cache")
+														 .resolve("downloads");
+
+	/**
+	 * Returns a cached file with the given content.
+	 *
+	 * @param hash The hash of the requested content
+	 * @return The cached file, or {@code null} if the content is not cached
+	 */
+	static Path get(FileHash hash) {
+		if (!isEnabled() || hash == null || hash.noFile()) {
+			return null;
+		}
+		final Path file = CACHE_FOLDER.resolve(hash.toString());
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try {
+			final FileHash actual = hashOf(file);
+			if (!actual.equals(hash)) {
+				BCLib.LOGGER.warning("Removing corrupted file " + file + " from the download cache.");
+				Files.deleteIfExists(file);
+				return null;
+			}
+			//the modification time is used to find the least recently used files
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return file;
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to read " + file + " from the download cache: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a received file to the cache. The cache may exceed its size until {@link #cleanup()} is called, which
+	 * should happen once after all files of a transfer were stored.
+	 *
+	 * @param file A file that was written by AutoSync
+	 * @param hash The hash of the file if it is already known (and verified), {@code null} to read the file again
+	 */
+	static void store(Path file, FileHash hash) {
+		if (!isEnabled()) {
+			return;
+		}
+		try {
+			final long size = Files.size(file);
+			if (size > getMaxSize()) {
+				return;
+			}
+			final Path target = CACHE_FOLDER.resolve((hash != null ? hash : hashOf(file)).toString());
+			if (Files.exists(target)) {
+				Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+				return;
+			}
+
+			Files.createDirectories(CACHE_FOLDER);
+			final Path tempFile = Files.createTempFile(CACHE_FOLDER, PartialFile.PREFIX, PartialFile.SUFFIX);
+			try {
+				Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING);
+				PartialFile.moveIntoPlace(tempFile, target);
+			}
+			finally {
+				Files.deleteIfExists(tempFile);
+			}
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to add " + file + " to the download cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the least recently used files until the cache fits into the configured size.
+	 */
+	static void cleanup() {
+		if (!isEnabled() || !Files.isDirectory(CACHE_FOLDER)) {
+			return;
+		}
+		try {
+			removeLeastRecentlyUsed();
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to clean up the download cache: " + e.getMessage());
+		}
+	}
+
+	private static void removeLeastRecentlyUsed() throws IOException {
+		final List<Path> files;
+		try (Stream<Path> stream = Files.list(CACHE_FOLDER)) {
+			files = stream.filter(Files::isRegularFile)
+						  .sorted(Comparator.comparing(DownloadCache::lastModified))
+						  .collect(Collectors.toList());
+		}
+
+		long total = 0;
+		for (Path file : files) {
+			total += Files.size(file);
+		}
+
+		final long maxSize = getMaxSize();
+		for (Path file : files) {
+			if (total <= maxSize) {
+				break;
+			}
+			total -= Files.size(file);
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		}
+		catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static FileHash hashOf(Path file) throws IOException {
+		final long size = Files.size(file);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File is too large");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final FileHash.Incremental hash = new FileHash.Incremental((int) size);
+			final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			while (channel.read(buffer) >= 0) {
+				hash.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			return hash.finish();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unable to build hash", e);
+		}
+	}
+
+	private static long getMaxSize() {
+		return Configs.CLIENT_CONFIG.getDownloadCacheSize() * 1024L * 1024L;
+	}
+
+	private static boolean isEnabled() {
+		return Configs.CLIENT_CONFIG.getDownloadCacheSize() > 0;
+	}
+}
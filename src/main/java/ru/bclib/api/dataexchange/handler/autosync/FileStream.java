@@ -0,0 +1,534 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.ProgressListener;
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.DataExchangeAPI;
+import ru.bclib.api.dataexchange.DataHandler;
+import ru.bclib.api.dataexchange.DataHandlerDescriptor;
+import ru.bclib.api.dataexchange.FileHash;
+import ru.bclib.config.Configs;
+import ru.bclib.util.Pair;
+import ru.bclib.util.PathUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A single message of a file transfer started by {@link FileStreamSender}.
+ * <p>
+ * A transfer starts with a header message (that contains the token of the {@link RequestFiles} message), followed
+ * by one message announcing each file and several messages with the (encoded) content of that file. Every content
+ * message is acknowledged with a {@link FileStreamAck}. The transfer ends with a message that tells the client to
+ * write all received files, or with a message that tells the client the transfer was aborted.
+ * <p>
+ * Large files that are sent uncompressed are tracked in the {@link ResumeManifest}. If the transfer is interrupted,
+ * the partial file is kept, and the next {@link RequestFiles} message asks the server to continue where it stopped.
+ * <p>
+ * Messages are only parsed on the network thread. Everything else, including all file I/O, happens on the
+ * {@link #WRITER} thread, which is the only thread that touches receivers and partial files.
+ */
+public class FileStream extends DataHandler.FromServer {
+	public static final DataHandlerDescriptor DESCRIPTOR = new DataHandlerDescriptor(new ResourceLocation(BCLib.MOD_ID, "file_stream"), FileStream::new, false, false);
+
+	/**
+	 * State of an incoming transfer on the client.
+	 */
+	@Environment(EnvType.CLIENT)
+	private static class Receiver {
+		final int id;
+		final int fileCount;
+		final SyncCompression compression;
+		final int features;
+		//verified files, that are moved into place once the transfer is complete
+		final List<Pair<AutoFileSyncEntry, PartialFile>> receivedFiles = new ArrayList<>();
+
+		long received = 0;
+		int fileIndex = -1;
+		IncomingFile current;
+
+		Receiver(int id, int fileCount, SyncCompression compression, int features) {
+			this.id = id;
+			this.fileCount = fileCount;
+			this.compression = compression;
+			this.features = features;
+		}
+
+		int progress() {
+			if (fileCount == 0) return 100;
+			final double fileProgress = current == null || current.encodedLength == 0 ? 0 : (double) current.position / current.encodedLength;
+			return (int) (100 * (Math.max(0, fileIndex) + fileProgress) / fileCount);
+		}
+
+		/**
+		 * Deletes all temporary files of this transfer.
+		 */
+		void discard() {
+			if (current != null) {
+				current.discard();
+				current = null;
+			}
+			receivedFiles.forEach(p -> p.second.discard());
+			receivedFiles.clear();
+		}
+
+		/**
+		 * Like {@link #discard()}, but keeps the file that is currently received if it can be resumed later.
+		 */
+		void suspend() {
+			if (current != null) {
+				current.suspend();
+				current = null;
+			}
+			discard();
+		}
+	}
+
+	/**
+	 * A file that is currently received. The content is decoded while it arrives and written to a
+	 * {@link PartialFile}, only deltas are collected in memory (the server only creates deltas for files up to
+	 * {@link FileStreamSender#MAX_ENCODED_SIZE}).
+	 */
+	@Environment(EnvType.CLIENT)
+	private static class IncomingFile {
+		final AutoFileSyncEntry entry;
+		final AutoSyncID aid;
+		final byte mode;
+		final FileHash hash;
+		final int encodedLength;
+		int position = 0;
+
+		//null if the content is ignored
+		private PartialFile partial;
+		private SyncCompression.Decoder decoder;
+		private byte[] delta;
+
+		IncomingFile(AutoFileSyncEntry entry, AutoSyncID aid, byte mode, FileHash hash, int encodedLength) {
+			this.entry = entry;
+			this.aid = aid;
+			this.mode = mode;
+			this.hash = hash;
+			this.encodedLength = encodedLength;
+		}
+
+		/**
+		 * Prepares the file for the incoming content.
+		 *
+		 * @param compression The codec of the transfer
+		 * @param resumed     The partially received file the content is appended to, or {@code null}
+		 * @param key         The key used in the {@link ResumeManifest}
+		 */
+		void open(SyncCompression compression, PartialFile resumed, String key) throws IOException {
+			if (resumed != null) {
+				if (mode != AutoFileSyncEntry.CONTENT_RAW) {
+					resumed.discard();
+					throw new IOException("Only uncompressed files can be resumed");
+				}
+				partial = resumed;
+				return;
+			}
+			if (mode == AutoFileSyncEntry.CONTENT_DELTA) {
+				if (encodedLength > FileStreamSender.MAX_ENCODED_SIZE) {
+					throw new IOException("Delta is too large");
+				}
+				delta = new byte[encodedLength];
+			}
+			else if (mode == AutoFileSyncEntry.CONTENT_COMPRESSED) {
+				decoder = compression.newDecoder();
+			}
+			partial = PartialFile.create(PartialFile.folderFor(entry), hash.size);
+			if (mode == AutoFileSyncEntry.CONTENT_RAW && hash.size >= ResumeManifest.MIN_SIZE) {
+				partial.track(key, hash);
+			}
+		}
+
+		boolean isIgnored() {
+			return partial == null;
+		}
+
+		void receive(byte[] data) throws IOException {
+			if (partial != null) {
+				if (delta != null) {
+					System.arraycopy(data, 0, delta, position, data.length);
+				}
+				else if (decoder != null) {
+					decoder.update(data, 0, data.length, partial);
+				}
+				else {
+					partial.write(data, 0, data.length);
+				}
+			}
+			position += data.length;
+		}
+
+		/**
+		 * Writes the remaining content and verifies the file.
+		 */
+		PartialFile complete() throws IOException {
+			try {
+				if (delta != null) {
+					if (entry.fileName == null || !entry.fileName.isFile()) {
+						throw new IOException("Local copy is missing");
+					}
+					DeltaTransfer.applyDelta(entry.fileName, delta, partial);
+				}
+				else if (decoder != null && !decoder.finished()) {
+					throw new IOException("Compressed content is incomplete");
+				}
+				partial.finish(hash);
+				return partial;
+			}
+			catch (IOException e) {
+				partial.discard();
+				throw e;
+			}
+			finally {
+				if (decoder != null) decoder.close();
+			}
+		}
+
+		void discard() {
+			if (decoder != null) decoder.close();
+			if (partial != null) partial.discard();
+		}
+
+		void suspend() {
+			if (decoder != null) decoder.close();
+			if (partial != null) partial.suspend();
+		}
+	}
+
+	/**
+	 * Writes the incoming files on the client. Tasks run in the order the messages arrived.
+	 */
+	static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "BCLib FileStream Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//only accessed on the WRITER thread
+	private static final Map<Integer, Receiver> RECEIVERS = new HashMap<>();
+	//partial files that were offered to the server in the last RequestFiles message, keyed by ResumeManifest.keyOf
+	private static final Map<String, PartialFile> RESUMED = new HashMap<>();
+
+	private FileStream() {
+		super(DESCRIPTOR.IDENTIFIER);
+	}
+
+	@Override
+	protected void serializeDataOnServer(FriendlyByteBuf buf) {
+		BCLib.LOGGER.error("[Internal Error] The message '" + getIdentifier() + "' is written by the FileStreamSender!");
+	}
+
+	/**
+	 * Keeps the files of unfinished transfers for a later transfer. Called on the {@link #WRITER} thread before new
+	 * files are requested, transfers that were interrupted by a disconnect are never finished.
+	 */
+	@Environment(EnvType.CLIENT)
+	static void suspendTransfers() {
+		RECEIVERS.values().forEach(Receiver::suspend);
+		RECEIVERS.clear();
+		releaseResumed();
+	}
+
+	/**
+	 * Opens the partially received copies of the requested files, so the server can continue those transfers. This
+	 * reads and hashes the received part of every file and must be called on the {@link #WRITER} thread.
+	 *
+	 * @param files The requested files
+	 * @return The partial files, keyed by the index in files
+	 */
+	@Environment(EnvType.CLIENT)
+	static Map<Integer, PartialFile> prepareResume(List<AutoSyncID> files) {
+		final Map<Integer, PartialFile> result = new HashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			final String key = ResumeManifest.keyOf(files.get(i));
+			final ResumeManifest.Entry entry = ResumeManifest.get(key);
+			if (entry == null) {
+				continue;
+			}
+			try {
+				final PartialFile partial = PartialFile.resume(entry);
+				RESUMED.put(key, partial);
+				result.put(i, partial);
+				BCLib.LOGGER.info("Resuming " + files.get(i) + " at " + PathUtil.humanReadableFileSize(partial.getOffset()));
+			}
+			catch (IOException e) {
+				BCLib.LOGGER.warning("Unable to resume " + files.get(i) + ": " + e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Closes all partial files the server did not continue, they are kept for a later transfer.
+	 */
+	@Environment(EnvType.CLIENT)
+	private static void releaseResumed() {
+		RESUMED.values().forEach(PartialFile::suspend);
+		RESUMED.clear();
+	}
+
+	@Environment(EnvType.CLIENT)
+	@Override
+	protected void deserializeIncomingDataOnClient(FriendlyByteBuf buf, PacketSender responseSender) {
+		final byte type = buf.readByte();
+		final int id = buf.readVarInt();
+		final Runnable task;
+
+		if (type == FileStreamSender.MSG_BEGIN) {
+			final String token = readString(buf);
+			final int fileCount = buf.readVarInt();
+			final int features = buf.isReadable() ? buf.readVarInt() : 0;
+			task = () -> begin(id, token, fileCount, features);
+		}
+		else if (type == FileStreamSender.MSG_FILE) {
+			final int fileIndex = buf.readVarInt();
+			final Pair<AutoFileSyncEntry, AutoSyncID> identity = AutoFileSyncEntry.deserializeIdentity(buf);
+			final int rawLength = buf.readInt();
+			final byte mode = buf.readByte();
+			final FileHash hash = FileHash.deserialize(buf);
+			final int encodedLength = buf.readInt();
+			//the offset is only sent if the client announced FEATURE_RESUME
+			final long offset = buf.isReadable() ? buf.readVarLong() : 0;
+			final IncomingFile file = new IncomingFile(identity.first, identity.second, mode, hash, encodedLength);
+			task = () -> startFile(id, fileIndex, file, rawLength, offset);
+		}
+		else if (type == FileStreamSender.MSG_DATA) {
+			final byte[] data = new byte[buf.readVarInt()];
+			buf.readBytes(data);
+			task = () -> receiveData(id, data);
+		}
+		else if (type == FileStreamSender.MSG_END) {
+			task = () -> end(id);
+		}
+		else if (type == FileStreamSender.MSG_ABORT) {
+			final String reason = readString(buf);
+			task = () -> serverAborted(id, reason);
+		}
+		else {
+			BCLib.LOGGER.error("Unknown File Transfer message " + type);
+			return;
+		}
+
+		WRITER.execute(() -> {
+			try {
+				task.run();
+			}
+			catch (RuntimeException e) {
+				BCLib.LOGGER.error("File transfer " + id + " failed: " + e.getMessage());
+				final Receiver receiver = RECEIVERS.get(id);
+				if (receiver != null) {
+					abort(receiver, "Internal error");
+				}
+			}
+		});
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void begin(int id, String token, int fileCount, int features) {
+		if (!token.equals(RequestFiles.currentToken)) {
+			RequestFiles.newToken();
+			BCLib.LOGGER.error("Unrequested File Transfer!");
+			DataExchangeAPI.send(new FileStreamAck(id, -1));
+			return;
+		}
+		RequestFiles.newToken();
+
+		if (!(Configs.CLIENT_CONFIG.isAcceptingConfigs() || Configs.CLIENT_CONFIG.isAcceptingFiles() || Configs.CLIENT_CONFIG.isAcceptingMods())) {
+			releaseResumed();
+			DataExchangeAPI.send(new FileStreamAck(id, -1));
+			return;
+		}
+
+		//transfers that were interrupted by a disconnect are never finished
+		RECEIVERS.values().forEach(Receiver::suspend);
+		RECEIVERS.clear();
+
+		RECEIVERS.put(id, new Receiver(id, fileCount, RequestFiles.currentCompression, features));
+		BCLib.LOGGER.info("Server streams " + fileCount + " Files:");
+		reportProgress(0);
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static Receiver getReceiver(int id) {
+		final Receiver receiver = RECEIVERS.get(id);
+		if (receiver == null) {
+			BCLib.LOGGER.error("Unknown File Transfer " + id);
+		}
+		return receiver;
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void startFile(int id, int fileIndex, IncomingFile file, int rawLength, long offset) {
+		final Receiver receiver = getReceiver(id);
+		if (receiver == null) {
+			return;
+		}
+		if (receiver.current != null) {
+			abort(receiver, "Previous file is incomplete");
+			return;
+		}
+		receiver.fileIndex = fileIndex;
+		receiver.current = file;
+
+		final String key = file.entry == null ? null : ResumeManifest.keyOf(file.entry);
+		PartialFile resumed = key == null ? null : RESUMED.remove(key);
+		if (offset > 0 && (resumed == null || resumed.getOffset() != offset || !file.hash.equals(resumed.getExpectedHash()))) {
+			if (resumed != null) resumed.discard();
+			abort(receiver, "Unexpected resume offset for " + file.aid);
+			return;
+		}
+		if (offset == 0 && resumed != null) {
+			//the server sends the complete file
+			resumed.discard();
+			resumed = null;
+		}
+
+		if (file.entry == null) {
+			BCLib.LOGGER.error("   - Failed to receive File " + file.aid + ", possibly sent from a Mod that is not installed on the client.");
+		}
+		else if (SendFiles.acceptFile(file.entry, rawLength)) {
+			try {
+				file.open(receiver.compression, resumed, key);
+			}
+			catch (IOException e) {
+				BCLib.LOGGER.error("   - Unable to write " + file.aid + ": " + e.getMessage());
+				file.discard();
+			}
+		}
+		else if (resumed != null) {
+			resumed.discard();
+		}
+		if (file.encodedLength == 0) {
+			finishFile(receiver);
+		}
+		reportProgress(receiver.progress());
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void receiveData(int id, byte[] data) {
+		final Receiver receiver = getReceiver(id);
+		if (receiver == null) {
+			return;
+		}
+		final IncomingFile file = receiver.current;
+		if (file == null || file.position + data.length > file.encodedLength) {
+			abort(receiver, "Unexpected file content");
+			return;
+		}
+		try {
+			file.receive(data);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.error("   - Failed to write " + file.aid + ": " + e.getMessage());
+			file.discard();
+			receiver.current = new IncomingFile(null, file.aid, file.mode, file.hash, file.encodedLength);
+			receiver.current.position = file.position + data.length;
+		}
+		receiver.received += data.length;
+		//acknowledged once the content was written, so the server never gets ahead of the disk
+		DataExchangeAPI.send(new FileStreamAck(id, receiver.received));
+
+		if (receiver.current.position == receiver.current.encodedLength) {
+			finishFile(receiver);
+		}
+		reportProgress(receiver.progress());
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void end(int id) {
+		final Receiver receiver = getReceiver(id);
+		if (receiver == null) {
+			return;
+		}
+		RECEIVERS.remove(id);
+		if (receiver.current != null) {
+			receiver.discard();
+			BCLib.LOGGER.error("File transfer ended with an incomplete file.");
+			return;
+		}
+		releaseResumed();
+
+		//the receiver is no longer reachable from the WRITER thread, so the files can be handed to the client thread
+		final List<Pair<AutoFileSyncEntry, PartialFile>> files = receiver.receivedFiles;
+		final Minecraft client = Minecraft.getInstance();
+		client.execute(() -> {
+			ProgressListener listener = ChunkerProgress.getProgressListener();
+			if (listener != null) {
+				listener.progressStagePercentage(100);
+			}
+
+			BCLib.LOGGER.info("Writing Files:");
+			for (Pair<AutoFileSyncEntry, PartialFile> entry : files) {
+				SendFiles.moveSyncedFile(entry.first, entry.second, entry.first.fileName);
+			}
+			DownloadCache.cleanup();
+			SendFiles.confirmRestart(client);
+		});
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void serverAborted(int id, String reason) {
+		final Receiver receiver = getReceiver(id);
+		if (receiver == null) {
+			return;
+		}
+		RECEIVERS.remove(id);
+		receiver.suspend();
+		releaseResumed();
+		BCLib.LOGGER.error("Server aborted the file transfer: " + reason);
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void reportProgress(int progress) {
+		Minecraft.getInstance().execute(() -> {
+			ProgressListener listener = ChunkerProgress.getProgressListener();
+			if (listener != null) {
+				listener.progressStagePercentage(progress);
+			}
+		});
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void finishFile(Receiver receiver) {
+		final IncomingFile file = receiver.current;
+		receiver.current = null;
+		if (file.isIgnored()) {
+			return;
+		}
+
+		try {
+			receiver.receivedFiles.add(new Pair<>(file.entry, file.complete()));
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.error("   - Failed to receive " + file.aid + ": " + e.getMessage());
+		}
+	}
+
+	@Environment(EnvType.CLIENT)
+	private static void abort(Receiver receiver, String reason) {
+		BCLib.LOGGER.error("Cancelling file transfer " + receiver.id + ": " + reason);
+		RECEIVERS.remove(receiver.id);
+		receiver.discard();
+		releaseResumed();
+		DataExchangeAPI.send(new FileStreamAck(receiver.id, -1));
+	}
+
+	@Environment(EnvType.CLIENT)
+	@Override
+	protected void runOnClientGameThread(Minecraft client) {
+		//progress and the received files are handed to the client thread by the WRITER thread
+	}
+}
@@ -0,0 +1,49 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Player;
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.DataHandler;
+import ru.bclib.api.dataexchange.DataHandlerDescriptor;
+
+/**
+ * Tells the server how many bytes of a {@link FileStream} transfer the client received, so the
+ * {@link FileStreamSender} can send more data. A negative value cancels the transfer.
+ */
+public class FileStreamAck extends DataHandler.FromClient {
+	public static final DataHandlerDescriptor DESCRIPTOR = new DataHandlerDescriptor(new ResourceLocation(BCLib.MOD_ID, "file_stream_ack"), FileStreamAck::new, false, false);
+
+	private int id;
+	private long received;
+
+	private FileStreamAck() {
+		this(0, 0);
+	}
+
+	FileStreamAck(int id, long received) {
+		super(DESCRIPTOR.IDENTIFIER);
+		this.id = id;
+		this.received = received;
+	}
+
+	@Environment(EnvType.CLIENT)
+	@Override
+	protected void serializeDataOnClient(FriendlyByteBuf buf) {
+		buf.writeVarInt(id);
+		buf.writeLong(received);
+	}
+
+	@Override
+	protected void deserializeIncomingDataOnServer(FriendlyByteBuf buf, Player player, PacketSender responseSender) {
+		id = buf.readVarInt();
+		received = buf.readLong();
+		if (player instanceof ServerPlayer serverPlayer) {
+			FileStreamSender.ack(serverPlayer, id, received);
+		}
+	}
+}
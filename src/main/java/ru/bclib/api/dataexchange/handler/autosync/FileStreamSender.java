@@ -0,0 +1,523 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import ru.bclib.BCLib;
+import ru.bclib.api.LifeCycleAPI;
+import ru.bclib.api.dataexchange.DataHandler;
+import ru.bclib.api.dataexchange.FileHash;
+import ru.bclib.api.dataexchange.handler.autosync.AutoFileSyncEntry.EncodedContent;
+import ru.bclib.util.PathUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Sends requested files to a client as a stream of small {@link FileStream} messages.
+ * <p>
+ * In contrast to {@link SendFiles}, the files are never serialized into one large buffer. Every transfer reads the
+ * next chunk of the current file when there is room in its window, so at most {@link #WINDOW_SIZE} bytes per
+ * transfer are in flight. The client acknowledges received data with {@link FileStreamAck}, which opens the window
+ * again. Files that are larger than {@link #MAX_ENCODED_SIZE} are read from a {@link FileChannel} directly into the
+ * outgoing buffers and sent uncompressed, smaller files are encoded in memory, so they can use compression and
+ * delta transfers.
+ * <p>
+ * If the client supports it, large files that were partially received before continue at the offset of the last
+ * checkpoint (see {@link ResumeManifest}). The offset is only accepted if the md5-hash of the received bytes matches
+ * the beginning of the local file.
+ * <p>
+ * All transfers are driven by a single background thread, which only sends prepared content. Files are read, hashed
+ * and encoded on a small pool of worker threads, the next file of a transfer is prepared while the current one is
+ * sent. Transfers are identified by an ID, so several transfers (for different players) can run at the same time.
+ */
+class FileStreamSender {
+	static final byte MSG_BEGIN = 0;
+	static final byte MSG_FILE = 1;
+	static final byte MSG_DATA = 2;
+	static final byte MSG_END = 3;
+	static final byte MSG_ABORT = 4;
+
+	static final int CHUNK_SIZE = 32 * 1024;
+	/**
+	 * Maximum number of unacknowledged bytes per transfer
+	 */
+	static final int WINDOW_SIZE = 8 * CHUNK_SIZE;
+	/**
+	 * Files up to this size are loaded into memory, so they can be compressed or sent as a delta
+	 */
+	static final int MAX_ENCODED_SIZE = 16 * 1024 * 1024;
+	private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+	private static final Map<Integer, Transfer> TRANSFERS = new ConcurrentHashMap<>();
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "BCLib File Stream");
+		t.setDaemon(true);
+		return t;
+	});
+	private static final AtomicInteger NEXT_ENCODER = new AtomicInteger();
+	private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(
+		Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)),
+		r -> {
+			Thread t = new Thread(r, "BCLib File Stream Encoder " + NEXT_ENCODER.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	);
+
+	static {
+		EXECUTOR.scheduleWithFixedDelay(FileStreamSender::abortIdle, 15, 15, TimeUnit.SECONDS);
+		LifeCycleAPI.onServerStop(server -> EXECUTOR.execute(() -> abortAll("Server stopped")));
+	}
+
+	/**
+	 * A checkpoint of a partially received file.
+	 *
+	 * @param hash      The hash of the complete file the client received the first part of
+	 * @param offset    The number of bytes the client already has
+	 * @param prefixMd5 The md5-hash of those bytes
+	 */
+	record ResumeRequest(FileHash hash, long offset, byte[] prefixMd5) {
+	}
+
+	/**
+	 * Starts a new transfer.
+	 *
+	 * @param player      The receiving player
+	 * @param files       The files to send
+	 * @param token       The token of the {@link RequestFiles} message
+	 * @param compression The codec the client requested
+	 * @param signatures  Signatures of the local copies on the client, used for delta transfers
+	 * @param resume      {@code true} if the client can continue partially received files
+	 * @param resumes     Checkpoints of partially received files on the client
+	 */
+	static void start(ServerPlayer player, List<AutoFileSyncEntry> files, String token, SyncCompression compression, Map<AutoFileSyncEntry, DeltaTransfer.Signature> signatures, boolean resume, Map<AutoFileSyncEntry, ResumeRequest> resumes) {
+		final List<AutoFileSyncEntry> existingFiles = files.stream()
+														   .filter(e -> e != null && e.fileName != null && e.fileName.isFile())
+														   .collect(Collectors.toList());
+		final Transfer transfer = new Transfer(NEXT_ID.incrementAndGet(), player, existingFiles, compression, signatures, resume, resumes);
+		TRANSFERS.put(transfer.id, transfer);
+
+		BCLib.LOGGER.info("Streaming " + existingFiles.size() + " Files to Client (transfer " + transfer.id + "):");
+		EXECUTOR.execute(() -> {
+			FriendlyByteBuf buf = message(MSG_BEGIN, transfer.id);
+			DataHandler.writeString(buf, token);
+			buf.writeVarInt(existingFiles.size());
+			buf.writeVarInt(resume ? RequestFiles.FEATURE_RESUME : 0);
+			transfer.send(buf);
+			transfer.pump();
+		});
+	}
+
+	/**
+	 * Called when the client acknowledged received data.
+	 *
+	 * @param player   The player that sent the acknowledgement
+	 * @param id       The ID of the transfer
+	 * @param received The total number of bytes the client received, or a negative value if the client cancelled
+	 */
+	static void ack(ServerPlayer player, int id, long received) {
+		EXECUTOR.execute(() -> {
+			final Transfer transfer = TRANSFERS.get(id);
+			if (transfer == null || transfer.player != player) {
+				return;
+			}
+			if (received < 0) {
+				BCLib.LOGGER.info("Client cancelled transfer " + id);
+				transfer.close();
+				return;
+			}
+			//a client can not have received more than was sent
+			if (received > transfer.sent) {
+				transfer.abort("Client acknowledged " + received + " bytes, but only " + transfer.sent + " were sent");
+				return;
+			}
+			transfer.acked = Math.max(transfer.acked, Math.min(received, transfer.sent));
+			transfer.lastActivity = System.currentTimeMillis();
+			transfer.pump();
+		});
+	}
+
+	static FriendlyByteBuf message(byte type, int id) {
+		FriendlyByteBuf buf = PacketByteBufs.create();
+		buf.writeByte(type);
+		buf.writeVarInt(id);
+		return buf;
+	}
+
+	private static void abortIdle() {
+		final long now = System.currentTimeMillis();
+		TRANSFERS.values()
+				 .stream()
+				 .filter(t -> now - t.lastActivity > IDLE_TIMEOUT_MS || t.player.hasDisconnected())
+				 .collect(Collectors.toList())
+				 .forEach(t -> t.abort("Timed out"));
+	}
+
+	private static void abortAll(String reason) {
+		List.copyOf(TRANSFERS.values()).forEach(t -> t.abort(reason));
+	}
+
+	/**
+	 * The remaining (encoded) content of the file that is currently sent.
+	 */
+	private interface Source {
+		long remaining();
+
+		void write(FriendlyByteBuf buf, int length) throws IOException;
+
+		default void close() {
+		}
+	}
+
+	private static class MemorySource implements Source {
+		private final byte[] data;
+		private int position = 0;
+
+		MemorySource(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public long remaining() {
+			return data.length - position;
+		}
+
+		@Override
+		public void write(FriendlyByteBuf buf, int length) {
+			buf.writeBytes(data, position, length);
+			position += length;
+		}
+	}
+
+	private static class ChannelSource implements Source {
+		private final FileChannel channel;
+		private final long size;
+		private long position;
+
+		ChannelSource(FileChannel channel, long size, long start) {
+			this.channel = channel;
+			this.size = size;
+			this.position = start;
+		}
+
+		@Override
+		public long remaining() {
+			return size - position;
+		}
+
+		@Override
+		public void write(FriendlyByteBuf buf, int length) throws IOException {
+			//read straight into the outgoing buffer
+			int written = 0;
+			while (written < length) {
+				final int count = buf.writeBytes(channel, position + written, length - written);
+				if (count < 0) throw new IOException("Unexpected end of file");
+				written += count;
+			}
+			position += length;
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				BCLib.LOGGER.warning("Failed to close streamed file: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A file that is ready to be sent.
+	 *
+	 * @param index       The index of the file in the transfer
+	 * @param entry       The file
+	 * @param encoded     The mode (and for delta transfers the hash) of the encoded content
+	 * @param hash        The hash of the complete file
+	 * @param startOffset The offset the transfer of a resumed file starts at
+	 * @param source      The encoded content
+	 */
+	private record PreparedFile(int index, AutoFileSyncEntry entry, EncodedContent encoded, FileHash hash, long startOffset, Source source) {
+	}
+
+	/**
+	 * State of a running transfer. Only accessed from the {@link #EXECUTOR} thread, apart from the final fields
+	 * that are read while the next file is prepared on one of the {@link #ENCODERS}.
+	 */
+	private static class Transfer {
+		final int id;
+		final ServerPlayer player;
+		final List<AutoFileSyncEntry> files;
+		final SyncCompression compression;
+		final Map<AutoFileSyncEntry, DeltaTransfer.Signature> signatures;
+		final boolean resume;
+		final Map<AutoFileSyncEntry, ResumeRequest> resumes;
+		final long startTime = System.nanoTime();
+
+		int fileIndex = -1;
+		Source source;
+		long sent = 0;
+		volatile long lastActivity = System.currentTimeMillis();
+		long acked = 0;
+		long totalRaw = 0;
+		//the next file, prepared on one of the ENCODERS, completes with null if there are no more files
+		CompletableFuture<PreparedFile> next;
+		boolean waiting = false;
+
+		Transfer(int id, ServerPlayer player, List<AutoFileSyncEntry> files, SyncCompression compression, Map<AutoFileSyncEntry, DeltaTransfer.Signature> signatures, boolean resume, Map<AutoFileSyncEntry, ResumeRequest> resumes) {
+			this.id = id;
+			this.player = player;
+			this.files = files;
+			this.compression = compression;
+			this.signatures = signatures;
+			this.resume = resume;
+			this.resumes = resumes;
+		}
+
+		/**
+		 * Sends data until the window is full or all files were sent.
+		 */
+		void pump() {
+			if (TRANSFERS.get(id) != this) {
+				return;
+			}
+			if (player.hasDisconnected()) {
+				close();
+				return;
+			}
+
+			try {
+				while (sent - acked < WINDOW_SIZE) {
+					if (source == null || source.remaining() == 0) {
+						closeSource();
+						if (next == null) {
+							next = prepareAsync(fileIndex + 1);
+						}
+						if (!next.isDone()) {
+							if (!waiting) {
+								waiting = true;
+								next.whenComplete((file, error) -> EXECUTOR.execute(() -> {
+									waiting = false;
+									pump();
+								}));
+							}
+							return;
+						}
+
+						final PreparedFile file = next.join();
+						next = null;
+						if (file == null) {
+							finish();
+							return;
+						}
+						startFile(file);
+						//encode the following file while this one is sent
+						next = prepareAsync(file.index + 1);
+						continue;
+					}
+
+					final int length = (int) Math.min(CHUNK_SIZE, source.remaining());
+					FriendlyByteBuf buf = message(MSG_DATA, id);
+					buf.writeVarInt(length);
+					source.write(buf, length);
+					send(buf);
+					sent += length;
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				final String name = fileIndex >= 0 && fileIndex < files.size() ? files.get(fileIndex).toString() : "files";
+				BCLib.LOGGER.error("Failed to stream " + name + ": " + cause.getMessage());
+				abort("Failed to read " + name);
+			}
+		}
+
+		private CompletableFuture<PreparedFile> prepareAsync(int index) {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return prepare(index);
+				}
+				catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}, ENCODERS);
+		}
+
+		/**
+		 * Reads and encodes the next file that can be sent. Runs on one of the {@link #ENCODERS}.
+		 *
+		 * @param index The index of the first file to check
+		 * @return The prepared file, {@code null} if there are no more files
+		 */
+		private PreparedFile prepare(int index) throws IOException {
+			for (; index < files.size(); index++) {
+				final AutoFileSyncEntry entry = files.get(index);
+				if (!entry.isAllowedToSend()) {
+					BCLib.LOGGER.error(entry.fileName + " is not within game folder " + PathUtil.GAME_FOLDER + ". Pretending it does not exist.");
+					continue;
+				}
+
+				final Path path = entry.fileName.toPath();
+				final long size = Files.size(path);
+				if (size > Integer.MAX_VALUE) {
+					BCLib.LOGGER.error("	- " + entry + " is too large to be sent");
+					continue;
+				}
+
+				FileHash hash = null;
+				long startOffset = 0;
+				final ResumeRequest request = resumes.get(entry);
+				if (request != null && request.offset > 0 && request.offset < size) {
+					hash = FileHash.create(entry.fileName);
+					startOffset = resumeOffset(entry, request, hash);
+				}
+
+				if (startOffset == 0 && size <= MAX_ENCODED_SIZE) {
+					final byte[] content = Files.readAllBytes(path);
+					final EncodedContent encoded = AutoFileSyncEntry.encodeContent(content, compression, signatures.get(entry));
+					if (encoded.hash() != null) hash = encoded.hash();
+					else if (hash == null) hash = FileHash.create(content);
+					return new PreparedFile(index, entry, encoded, hash, 0, new MemorySource(encoded.data()));
+				}
+
+				//the hash of resumed files was already computed above
+				if (hash == null) hash = FileHash.create(entry.fileName);
+				final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+				final EncodedContent encoded = new EncodedContent(AutoFileSyncEntry.CONTENT_RAW, null, null);
+				return new PreparedFile(index, entry, encoded, hash, startOffset, new ChannelSource(channel, size, startOffset));
+			}
+			return null;
+		}
+
+		/**
+		 * Announces a prepared file to the client, its content is sent afterwards.
+		 */
+		private void startFile(PreparedFile file) {
+			fileIndex = file.index;
+			source = file.source;
+
+			FriendlyByteBuf buf = message(MSG_FILE, id);
+			buf.writeVarInt(fileIndex);
+			file.entry.serializeIdentity(buf);
+			buf.writeInt(file.hash.size);
+			buf.writeByte(file.encoded.mode());
+			file.hash.serialize(buf);
+			buf.writeInt((int) source.remaining());
+			if (resume) {
+				buf.writeVarLong(file.startOffset);
+			}
+			send(buf);
+
+			totalRaw += file.hash.size;
+			BCLib.LOGGER.info("	- " + file.entry + " (" + PathUtil.humanReadableFileSize(file.hash.size) + ", sent " + PathUtil.humanReadableFileSize(source.remaining()) + (file.startOffset > 0 ? ", resumed at " + PathUtil.humanReadableFileSize(file.startOffset) : "") + ")");
+		}
+
+		/**
+		 * Checks if the client can continue a partially received copy of the file.
+		 *
+		 * @param hash The hash of the local file
+		 * @return The offset the transfer starts at, {@code 0} if the complete file has to be sent
+		 */
+		private static long resumeOffset(AutoFileSyncEntry entry, ResumeRequest request, FileHash hash) throws IOException {
+			if (!request.hash.equals(hash)) {
+				BCLib.LOGGER.info("	- " + entry + " changed since the last transfer");
+				return 0;
+			}
+
+			final MessageDigest md;
+			try {
+				md = MessageDigest.getInstance("MD5");
+			}
+			catch (NoSuchAlgorithmException e) {
+				return 0;
+			}
+			try (FileChannel channel = FileChannel.open(entry.fileName.toPath(), StandardOpenOption.READ)) {
+				final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+				long remaining = request.offset;
+				while (remaining > 0) {
+					buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+					final int count = channel.read(buffer);
+					if (count < 0) return 0;
+					md.update(buffer.array(), 0, count);
+					remaining -= count;
+				}
+			}
+			if (!Arrays.equals(md.digest(), request.prefixMd5)) {
+				BCLib.LOGGER.info("	- Partial copy of " + entry + " does not match");
+				return 0;
+			}
+			return request.offset;
+		}
+
+		private void finish() {
+			send(message(MSG_END, id));
+			TRANSFERS.remove(id);
+			BCLib.LOGGER.info(String.format(
+				Locale.ROOT,
+				"Transfer %d uses %s: %s instead of %s (%.1f%% saved), took %dms",
+				id,
+				compression,
+				PathUtil.humanReadableFileSize(sent),
+				PathUtil.humanReadableFileSize(totalRaw),
+				totalRaw == 0 ? 0.0 : 100.0 * (totalRaw - sent) / totalRaw,
+				(System.nanoTime() - startTime) / 1000000
+			));
+		}
+
+		void abort(String reason) {
+			BCLib.LOGGER.warning("Aborting file transfer " + id + ": " + reason);
+			if (!player.hasDisconnected()) {
+				FriendlyByteBuf buf = message(MSG_ABORT, id);
+				DataHandler.writeString(buf, reason);
+				send(buf);
+			}
+			close();
+		}
+
+		void close() {
+			closeSource();
+			if (next != null) {
+				//a prepared file may hold an open channel
+				next.thenAccept(file -> {
+					if (file != null) file.source.close();
+				});
+				next = null;
+			}
+			TRANSFERS.remove(id);
+		}
+
+		private void closeSource() {
+			if (source != null) {
+				source.close();
+				source = null;
+			}
+		}
+
+		void send(FriendlyByteBuf buf) {
+			ServerPlayNetworking.send(player, FileStream.DESCRIPTOR.IDENTIFIER, buf);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package ru.bclib.api.dataexchange.handler.autosync;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
@@ -13,6 +15,8 @@ import ru.bclib.BCLib;
 import ru.bclib.api.dataexchange.DataExchangeAPI;
 import ru.bclib.api.dataexchange.DataHandler;
 import ru.bclib.api.dataexchange.DataHandlerDescriptor;
+import ru.bclib.api.dataexchange.FileHash;
+import ru.bclib.api.dataexchange.FileHashCache;
 import ru.bclib.api.dataexchange.handler.autosync.AutoSyncID.WithContentOverride;
 import ru.bclib.api.dataexchange.handler.autosync.SyncFolderDescriptor.SubFile;
 import ru.bclib.config.Configs;
@@ -28,6 +32,7 @@ import ru.bclib.util.PathUtil;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -50,8 +55,19 @@ public class HelloClient extends DataHandler.FromServer {
 
 	public static final DataHandlerDescriptor DESCRIPTOR = new DataHandlerDescriptor(new ResourceLocation(BCLib.MOD_ID, "hello_client"), HelloClient::new, false, false);
 	
+	private SyncCompression compression;
+	
 	public HelloClient() {
+		this(null);
+	}
+	
+	/**
+	 * @param compression The codec that was negotiated with the client, or {@code null} if the client did not offer
+	 *                    any (see {@link SyncCompression})
+	 */
+	HelloClient(SyncCompression compression) {
 		super(DESCRIPTOR.IDENTIFIER);
+		this.compression = compression;
 	}
 	
 	static String getBCLibVersion() {
@@ -69,8 +85,107 @@ public class HelloClient extends DataHandler.FromServer {
 		return true;
 	}
 	
+	/**
+	 * Everything the payload depends on, besides the state of the installed mods which can not change while the
+	 * server is running.
+	 * <p>
+	 * Offered files are only listed if they exist, and their hashes are part of the payload. While the
+	 * {@link AutoSyncWatcher} runs, it bumps the revision for every change. It is off by default, in that case the
+	 * modification time and size of every offered file are part of the state.
+	 */
+	private record PayloadState(int revision, int registeredMods, List<Long> files, List<Object> config) {
+		static PayloadState current(List<Long> files) {
+			return new PayloadState(
+				AutoSync.getHelloRevision(),
+				DataExchangeAPI.registeredMods().size(),
+				files,
+				List.of(
+					Configs.SERVER_CONFIG.isOfferingMods(),
+					Configs.SERVER_CONFIG.isOfferingAllMods(),
+					Configs.SERVER_CONFIG.isOfferingInfosForMods(),
+					Configs.SERVER_CONFIG.isOfferingFiles(),
+					Configs.SERVER_CONFIG.isOfferingConfigs(),
+					new ArrayList<>(Configs.SERVER_CONFIG.get(ServerConfig.EXCLUDED_MODS))
+				)
+			);
+		}
+		
+		/**
+		 * @return The modification time and size of every offered file, empty while the watcher runs
+		 */
+		static List<Long> fileStates() {
+			if (AutoSyncWatcher.isRunning()) {
+				return List.of();
+			}
+			final List<AutoFileSyncEntry> files = AutoSync.getAutoSyncFiles();
+			final List<Long> states = new ArrayList<>(files.size() * 2);
+			for (AutoFileSyncEntry entry : files) {
+				//both are 0 if the file does not exist
+				states.add(entry.fileName.lastModified());
+				states.add(entry.fileName.length());
+			}
+			return states;
+		}
+		
+		/**
+		 * The entries memoize their hash, so files that changed on disk since the last payload are hashed again.
+		 */
+		static void invalidateChangedFiles(List<Long> previous, List<Long> current) {
+			if (current.isEmpty()) {
+				return;
+			}
+			final List<AutoFileSyncEntry> files = AutoSync.getAutoSyncFiles();
+			for (int i = 0; i < files.size(); i++) {
+				final int index = i * 2;
+				if (index + 1 >= current.size()) {
+					break;
+				}
+				if (index + 1 >= previous.size() || !previous.get(index).equals(current.get(index)) || !previous.get(index + 1).equals(current.get(index + 1))) {
+					files.get(i).invalidateHash();
+				}
+			}
+		}
+	}
+	
+	private static PayloadState payloadState;
+	private static ByteBuf payload;
+	
+	/**
+	 * The payload is identical for all clients. It is serialized once into a read-only buffer and copied into the
+	 * packet of every joining player until the offered mods, files, folders or the server config change.
+	 */
 	@Override
 	protected void serializeDataOnServer(FriendlyByteBuf buf) {
+		final List<Long> files = PayloadState.fileStates();
+		final ByteBuf data;
+		synchronized (HelloClient.class) {
+			if (payloadState != null) {
+				PayloadState.invalidateChangedFiles(payloadState.files, files);
+			}
+			//capture the state before serializing, so a change that happens in the meantime invalidates the result
+			final PayloadState state = PayloadState.current(files);
+			if (payload == null || !state.equals(payloadState)) {
+				FriendlyByteBuf fresh = new FriendlyByteBuf(Unpooled.buffer());
+				serializePayload(fresh);
+				FileHashCache.save();
+				
+				payload = Unpooled.unreleasableBuffer(fresh.asReadOnly());
+				payloadState = state;
+			}
+			else {
+				BCLib.LOGGER.debug("Sending cached Hello to Client. (" + payload.readableBytes() + " bytes)");
+			}
+			data = payload;
+		}
+		buf.writeBytes(data, data.readerIndex(), data.readableBytes());
+		
+		//only sent to clients that offered codecs in HelloServer, everyone else would not expect it
+		if (compression != null) {
+			buf.writeByte(compression.id);
+		}
+	}
+	
+	private void serializePayload(FriendlyByteBuf buf) {
 		final String vbclib = getBCLibVersion();
 		BCLib.LOGGER.info("Sending Hello to Client. (server=" + vbclib + ")");
 
@@ -222,6 +337,9 @@ public class HelloClient extends DataHandler.FromServer {
 
 			serverPublishedModInfo = buf.readBoolean();
 		}
+		
+		//older servers do not negotiate a codec
+		RequestFiles.negotiatedCompression = buf.isReadable() ? SyncCompression.byID(buf.readByte()) : null;
 	}
 	
 	@Environment(EnvType.CLIENT)
@@ -378,6 +496,7 @@ public class HelloClient extends DataHandler.FromServer {
 		processModFileSync(filesToRequest, mismatchingMods);
 		processSingleFileSync(filesToRequest);
 		processAutoSyncFolder(filesToRequest, filesToRemove);
+		FileHashCache.save();
 		
 		//Handle folder sync
 		//Both client and server need to know about the folder you want to sync
@@ -473,12 +592,63 @@ public class HelloClient extends DataHandler.FromServer {
 			
 			SendFiles.writeSyncedFile(aid, aidc.contentWrapper.getRawContent(), aidc.localFile);
 		}
+		else if (restoreFromCache(aid)) {
+			BCLib.LOGGER.info("	- " + aid + " (restored from download cache)");
+		}
 		else {
 			requestFiles.add(aid);
 			BCLib.LOGGER.info("	- " + aid + " (requesting)");
 		}
 	}
 	
+	/**
+	 * Writes a requested file from the {@link DownloadCache}, if the cache contains the content the server announced.
+	 *
+	 * @return {@code true} if the file does not need to be requested
+	 */
+	@Environment(EnvType.CLIENT)
+	private boolean restoreFromCache(AutoSyncID aid) {
+		final FileHash serverHash = getServerHash(aid);
+		final Path cached = serverHash == null ? null : DownloadCache.get(serverHash);
+		if (cached == null) {
+			return false;
+		}
+		
+		final AutoFileSyncEntry entry;
+		if (aid instanceof AutoSyncID.ForDirectFileRequest freq) {
+			entry = AutoFileSyncEntry.ForDirectFileRequest.forRelativePath(freq.uniqueID, freq.relFile.toString());
+		}
+		else {
+			entry = AutoFileSyncEntry.findMatching(aid.modID, aid.uniqueID);
+		}
+		return entry != null && SendFiles.copySyncedFile(entry, cached, serverHash, entry.fileName);
+	}
+	
+	/**
+	 * @return The hash of the file on the server, or {@code null} if the server did not announce it
+	 */
+	private FileHash getServerHash(AutoSyncID aid) {
+		if (aid instanceof AutoSyncID.ForDirectFileRequest freq) {
+			for (SyncFolderDescriptor desc : autoSynFolders) {
+				if (desc.folderID.equals(freq.uniqueID)) {
+					SubFile subFile = desc.getLocalSubFile(freq.relFile.toString());
+					return subFile == null ? null : subFile.hash;
+				}
+			}
+			return null;
+		}
+		if (aid instanceof AutoSyncID.ForModFileRequest) {
+			//only the version of mods is announced
+			return null;
+		}
+		for (AutoSync.AutoSyncTriple t : autoSyncedFiles) {
+			if (t.serverHash.modID.equals(aid.modID) && t.serverHash.uniqueID.equals(aid.uniqueID)) {
+				return t.serverHash.hash;
+			}
+		}
+		return null;
+	}
+	
 	private void requestBCLibDownload() {
 		BCLib.LOGGER.warning("Starting download of BCLib");
 		requestFileDownloads(List.of(new AutoSyncID.ForModFileRequest(BCLib.MOD_ID, bclibVersion)));
@@ -492,6 +662,6 @@ public class HelloClient extends DataHandler.FromServer {
 		progress.progressStart(new TranslatableComponent("message.bclib.filesync.progress.stage.empty"));
 		ChunkerProgress.setProgressScreen(progress);
 
-		DataExchangeAPI.send(new RequestFiles(files));
+		RequestFiles.send(files);
 	}
 }
@@ -61,6 +61,7 @@ public class HelloServer extends DataHandler.FromClient {
 	public static final DataHandlerDescriptor DESCRIPTOR = new DataHandlerDescriptor(new ResourceLocation(BCLib.MOD_ID, "hello_server"), HelloServer::new, true, false);
 	
 	protected String bclibVersion = "0.0.0";
+	protected SyncCompression compression = null;
 	
 	public HelloServer() {
 		super(DESCRIPTOR.IDENTIFIER);
@@ -82,11 +83,14 @@ public class HelloServer extends DataHandler.FromClient {
 	protected void serializeDataOnClient(FriendlyByteBuf buf) {
 		BCLib.LOGGER.info("Sending hello to server.");
 		buf.writeInt(ModUtil.convertModVersion(HelloClient.getBCLibVersion()));
+		SyncCompression.writeSupported(buf);
 	}
 	
 	@Override
 	protected void deserializeIncomingDataOnServer(FriendlyByteBuf buf, Player player, PacketSender responseSender) {
 		bclibVersion = ModUtil.convertModVersion(buf.readInt());
+		//older clients do not offer any codecs
+		compression = buf.isReadable() ? SyncCompression.readAndChoose(buf) : null;
 	}
 	
 	@Override
@@ -104,6 +108,6 @@ public class HelloServer extends DataHandler.FromClient {
 			return;
 		}
 		
-		reply(new HelloClient(), server);
+		reply(new HelloClient(compression), server);
 	}
 }
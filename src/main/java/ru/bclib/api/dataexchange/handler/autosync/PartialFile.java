@@ -0,0 +1,273 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.FileHash;
+import ru.bclib.util.PathUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A file that is received from the server.
+ * <p>
+ * The content is appended to a temporary file in the folder of the destination, while the {@link FileHash} is
+ * updated incrementally. Once the content is complete, it is checked against the hash the server announced. The
+ * temporary file is only moved over the destination after it was verified, so an interrupted or corrupted transfer
+ * never replaces an existing file.
+ * <p>
+ * Large files can be tracked in the {@link ResumeManifest}, so an interrupted transfer can continue later.
+ */
+class PartialFile {
+	static final String PREFIX = ".bclib_";
+	static final String SUFFIX = ".part";
+
+	final Path path;
+	private final int size;
+	private final FileChannel channel;
+	private final FileHash.Incremental hash;
+
+	//set if the file is tracked in the ResumeManifest
+	private String resumeKey;
+	private FileHash expected;
+	private long checkpointInterval;
+	private long lastCheckpoint;
+	//set once the content was verified by finish
+	private FileHash verified;
+
+	private PartialFile(Path path, int size, boolean truncate) throws IOException {
+		this.path = path;
+		this.size = size;
+		try {
+			this.hash = new FileHash.Incremental(size);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unable to build hash for received file", e);
+		}
+		this.channel = truncate
+			? FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+			: FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Creates an empty temporary file.
+	 *
+	 * @param folder The folder the received file will be moved to
+	 * @param size   The size of the file
+	 * @return The new file
+	 * @throws IOException if the file can not be created, or the folder is not within the game folder
+	 */
+	static PartialFile create(Path folder, int size) throws IOException {
+		if (!PathUtil.isChildOf(PathUtil.GAME_FOLDER, folder)) {
+			throw new IOException(folder + " is not within game folder " + PathUtil.GAME_FOLDER);
+		}
+		Files.createDirectories(folder);
+		return new PartialFile(Files.createTempFile(folder, PREFIX, SUFFIX), size, true);
+	}
+
+	/**
+	 * Opens a file that was partially received before. Data after the last checkpoint is dropped, and the remaining
+	 * content is checked against the hash of the checkpoint.
+	 *
+	 * @param entry The entry in the {@link ResumeManifest}
+	 * @return The file, positioned at the offset of the checkpoint
+	 * @throws IOException if the file is missing or changed, the file and entry are deleted in that case
+	 */
+	static PartialFile resume(ResumeManifest.Entry entry) throws IOException {
+		PartialFile file = null;
+		try {
+			if (!PathUtil.isChildOf(PathUtil.GAME_FOLDER, entry.path())) {
+				throw new IOException(entry.path() + " is not within game folder " + PathUtil.GAME_FOLDER);
+			}
+			file = new PartialFile(entry.path(), entry.hash().size, false);
+			if (file.channel.size() < entry.offset()) {
+				throw new IOException("Partial file is incomplete");
+			}
+			file.channel.truncate(entry.offset());
+
+			final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			file.channel.position(0);
+			while (file.channel.read(buffer) >= 0) {
+				file.hash.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			if (!Arrays.equals(file.hash.getPrefixMd5(), entry.prefixMd5())) {
+				throw new IOException("Partial file was modified");
+			}
+			file.track(entry.key(), entry.hash());
+			return file;
+		}
+		catch (IOException | RuntimeException e) {
+			ResumeManifest.remove(entry.key());
+			if (file != null) {
+				file.discard();
+			}
+			else {
+				Files.deleteIfExists(entry.path());
+			}
+			throw e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Records checkpoints for this file in the {@link ResumeManifest}.
+	 *
+	 * @param key      The file this is part of, see {@link ResumeManifest#keyOf(AutoSyncID)}
+	 * @param expected The hash of the complete file
+	 */
+	void track(String key, FileHash expected) {
+		this.resumeKey = key;
+		this.expected = expected;
+		this.checkpointInterval = ResumeManifest.checkpointInterval(size);
+		this.lastCheckpoint = hash.getPosition();
+		ResumeManifest.put(new ResumeManifest.Entry(key, expected, path, lastCheckpoint, hash.getPrefixMd5(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return The number of bytes that were written
+	 */
+	long getOffset() {
+		return hash.getPosition();
+	}
+
+	/**
+	 * @return The md5-hash of the bytes that were written
+	 */
+	byte[] getPrefixMd5() {
+		return hash.getPrefixMd5();
+	}
+
+	/**
+	 * @return The hash of the complete file if this file is tracked in the {@link ResumeManifest}, otherwise
+	 * {@code null}
+	 */
+	FileHash getExpectedHash() {
+		return expected;
+	}
+
+	/**
+	 * @return The hash of the content once {@link #finish(FileHash)} verified it, otherwise {@code null}
+	 */
+	FileHash getVerifiedHash() {
+		return verified;
+	}
+
+	/**
+	 * Returns the folder a received file is written to.
+	 *
+	 * @param entry The local entry of the file
+	 * @return The folder
+	 */
+	static Path folderFor(AutoFileSyncEntry entry) {
+		if (entry.fileName != null) {
+			return entry.fileName.getAbsoluteFile().toPath().normalize().getParent();
+		}
+		return PathUtil.MOD_FOLDER;
+	}
+
+	/**
+	 * Appends the next piece of content.
+	 *
+	 * @throws IOException if the content is larger than announced, or the file can not be written
+	 */
+	void write(byte[] data, int offset, int length) throws IOException {
+		if (hash.getPosition() + length > size) {
+			throw new IOException("Received more data than announced");
+		}
+		hash.update(data, offset, length);
+		final ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		if (resumeKey != null && hash.getPosition() - lastCheckpoint >= checkpointInterval) {
+			checkpoint();
+		}
+	}
+
+	private void checkpoint() throws IOException {
+		channel.force(false);
+		lastCheckpoint = hash.getPosition();
+		ResumeManifest.put(new ResumeManifest.Entry(resumeKey, expected, path, lastCheckpoint, hash.getPrefixMd5(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * Keeps a tracked file for a later transfer, other files are deleted.
+	 */
+	void suspend() {
+		if (resumeKey == null) {
+			discard();
+			return;
+		}
+		try {
+			checkpoint();
+			channel.close();
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to keep " + path + " for a later transfer: " + e.getMessage());
+			discard();
+		}
+	}
+
+	/**
+	 * Closes the file and checks the content.
+	 *
+	 * @param expected The hash the server announced
+	 * @throws IOException if the content does not match, the file is deleted in that case
+	 */
+	void finish(FileHash expected) throws IOException {
+		if (resumeKey != null) {
+			ResumeManifest.remove(resumeKey);
+			resumeKey = null;
+		}
+		try {
+			channel.force(false);
+			channel.close();
+			final FileHash actual = hash.finish();
+			if (!actual.equals(expected)) {
+				throw new IOException("Received file does not match (" + actual + " != " + expected + ")");
+			}
+			verified = actual;
+		}
+		catch (IOException e) {
+			discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary file.
+	 */
+	void discard() {
+		if (resumeKey != null) {
+			ResumeManifest.remove(resumeKey);
+			resumeKey = null;
+		}
+		try {
+			channel.close();
+			Files.deleteIfExists(path);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Failed to delete " + path + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the target with a (verified) temporary file, atomically if the file system supports it.
+	 */
+	static void moveIntoPlace(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -3,25 +3,48 @@ package ru.bclib.api.dataexchange.handler.autosync;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
+import net.minecraft.client.Minecraft;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.player.Player;
 import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.DataExchangeAPI;
 import ru.bclib.api.dataexchange.DataHandler;
 import ru.bclib.api.dataexchange.DataHandlerDescriptor;
+import ru.bclib.api.dataexchange.FileHash;
 import ru.bclib.config.Configs;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 public class RequestFiles extends DataHandler.FromClient {
 	public static final DataHandlerDescriptor DESCRIPTOR = new DataHandlerDescriptor(new ResourceLocation(BCLib.MOD_ID, "request_files"), RequestFiles::new, false, false);
 	static String currentToken = "";
+	//the codec the server announced in the last HelloClient, null for servers that do not support compression
+	static SyncCompression negotiatedCompression = null;
+	//the codec that was requested together with the currentToken
+	static SyncCompression currentCompression = null;
+	//the client accepts files through the FileStream channel
+	static final int FEATURE_STREAMING = 1;
+	//the client can continue partially received files, see ResumeManifest
+	static final int FEATURE_RESUME = 2;
 	
 	protected List<AutoSyncID> files;
+	protected SyncCompression compression;
+	//signatures of local copies for delta transfers, keyed by the index in files
+	protected Map<Integer, DeltaTransfer.Signature> signatures;
+	//optional features the client supports
+	protected int features;
+	//checkpoints of partially received files, keyed by the index in files
+	protected Map<Integer, FileStreamSender.ResumeRequest> resumes;
 	
 	private RequestFiles() {
 		this(null);
@@ -42,9 +65,73 @@ public class RequestFiles extends DataHandler.FromClient {
 		return true;
 	}
 	
+	/**
+	 * Requests files from the server.
+	 * <p>
+	 * The signatures for delta transfers and the checkpoints of partially received files are built from the local
+	 * copies, which reads and hashes whole files. That is done on the {@link FileStream#WRITER} thread, which owns
+	 * the partial files, the request is sent from the client thread once it is ready.
+	 *
+	 * @param files The requested files
+	 */
+	@Environment(EnvType.CLIENT)
+	static void send(List<AutoSyncID> files) {
+		final RequestFiles request = new RequestFiles(files);
+		request.compression = negotiatedCompression;
+		request.signatures = new HashMap<>();
+		request.resumes = new HashMap<>();
+		if (request.compression == null) {
+			DataExchangeAPI.send(request);
+			return;
+		}
+		
+		CompletableFuture.runAsync(request::prepareLocalFiles, FileStream.WRITER)
+						 .whenComplete((result, error) -> {
+							 if (error != null) {
+								 BCLib.LOGGER.error("Failed to prepare local copies for the file request: " + error.getMessage());
+							 }
+							 Minecraft.getInstance().execute(() -> {
+								 if (Minecraft.getInstance().getConnection() == null) {
+									 BCLib.LOGGER.warning("Disconnected before the file request was sent.");
+									 return;
+								 }
+								 DataExchangeAPI.send(request);
+							 });
+						 });
+	}
+	
+	@Environment(EnvType.CLIENT)
+	private void prepareLocalFiles() {
+		FileStream.suspendTransfers();
+		
+		//servers that negotiate compression also accept signatures for delta transfers
+		for (int i = 0; i < files.size(); i++) {
+			final File basis = DeltaTransfer.getLocalBasis(files.get(i));
+			final byte[] data = basis == null ? null : DeltaTransfer.readBasis(basis);
+			if (data != null) {
+				signatures.put(i, DeltaTransfer.createSignature(data));
+			}
+		}
+		
+		FileStream.prepareResume(files).forEach((index, partial) -> resumes.put(
+			index,
+			new FileStreamSender.ResumeRequest(partial.getExpectedHash(), partial.getOffset(), partial.getPrefixMd5())
+		));
+	}
+	
 	@Environment(EnvType.CLIENT)
 	@Override
 	protected void serializeDataOnClient(FriendlyByteBuf buf) {
+		//requests that were not created by send(List) are prepared here
+		if (signatures == null) {
+			compression = negotiatedCompression;
+			signatures = new HashMap<>();
+			resumes = new HashMap<>();
+			if (compression != null) {
+				CompletableFuture.runAsync(this::prepareLocalFiles, FileStream.WRITER).join();
+			}
+		}
+		
 		newToken();
 		writeString(buf, currentToken);
 		
@@ -53,6 +140,27 @@ public class RequestFiles extends DataHandler.FromClient {
 		for (AutoSyncID a : files) {
 			a.serializeData(buf);
 		}
+		
+		currentCompression = compression;
+		if (currentCompression != null) {
+			buf.writeByte(currentCompression.id);
+			
+			buf.writeVarInt(signatures.size());
+			signatures.forEach((index, signature) -> {
+				buf.writeVarInt(index);
+				signature.serialize(buf);
+			});
+			
+			buf.writeVarInt(FEATURE_STREAMING | FEATURE_RESUME);
+			
+			buf.writeVarInt(resumes.size());
+			resumes.forEach((index, resume) -> {
+				buf.writeVarInt(index);
+				resume.hash().serialize(buf);
+				buf.writeVarLong(resume.offset());
+				buf.writeByteArray(resume.prefixMd5());
+			});
+		}
 	}
 	
 	String receivedToken = "";
@@ -70,7 +178,36 @@ public class RequestFiles extends DataHandler.FromClient {
 			BCLib.LOGGER.info("	- " + asid);
 		}
 		
-		
+		compression = buf.isReadable() ? SyncCompression.byID(buf.readByte()) : null;
+		signatures = new HashMap<>();
+		if (compression != null) {
+			try {
+				final int count = buf.readVarInt();
+				for (int i = 0; i < count; i++) {
+					final int index = buf.readVarInt();
+					signatures.put(index, DeltaTransfer.Signature.deserialize(buf));
+				}
+			}
+			catch (RuntimeException e) {
+				BCLib.LOGGER.error("Invalid delta signatures, sending full files: " + e.getMessage());
+				signatures.clear();
+			}
+		}
+		features = compression != null && buf.isReadable() ? buf.readVarInt() : 0;
+		resumes = new HashMap<>();
+		if ((features & FEATURE_RESUME) != 0) {
+			try {
+				final int count = buf.readVarInt();
+				for (int i = 0; i < count; i++) {
+					final int index = buf.readVarInt();
+					resumes.put(index, new FileStreamSender.ResumeRequest(FileHash.deserialize(buf), buf.readVarLong(), buf.readByteArray(16)));
+				}
+			}
+			catch (RuntimeException e) {
+				BCLib.LOGGER.error("Invalid resume requests, sending full files: " + e.getMessage());
+				resumes.clear();
+			}
+		}
 	}
 	
 	@Override
@@ -80,12 +217,28 @@ public class RequestFiles extends DataHandler.FromClient {
 			return;
 		}
 		
-		List<AutoFileSyncEntry> syncEntries = files.stream()
-												   .map(asid -> AutoFileSyncEntry.findMatching(asid))
-												   .filter(e -> e != null)
-												   .collect(Collectors.toList());
+		List<AutoFileSyncEntry> syncEntries = new ArrayList<>(files.size());
+		Map<AutoFileSyncEntry, DeltaTransfer.Signature> entrySignatures = new IdentityHashMap<>();
+		Map<AutoFileSyncEntry, FileStreamSender.ResumeRequest> entryResumes = new IdentityHashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			final AutoFileSyncEntry entry = AutoFileSyncEntry.findMatching(files.get(i));
+			if (entry != null) {
+				syncEntries.add(entry);
+				if (signatures.containsKey(i)) {
+					entrySignatures.put(entry, signatures.get(i));
+				}
+				if (resumes.containsKey(i)) {
+					entryResumes.put(entry, resumes.get(i));
+				}
+			}
+		}
 		
-		reply(new SendFiles(syncEntries, receivedToken), server);
+		if ((features & FEATURE_STREAMING) != 0 && player instanceof ServerPlayer serverPlayer) {
+			FileStreamSender.start(serverPlayer, syncEntries, receivedToken, compression, entrySignatures, (features & FEATURE_RESUME) != 0, entryResumes);
+		}
+		else {
+			reply(new SendFiles(syncEntries, receivedToken, compression, entrySignatures), server);
+		}
 	}
 	
 	public static void newToken() {
@@ -0,0 +1,178 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import io.netty.buffer.Unpooled;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraft.network.FriendlyByteBuf;
+import ru.bclib.BCLib;
+import ru.bclib.api.dataexchange.FileHash;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers large files that were only partially received, so the transfer can continue after a reconnect.
+ * <p>
+ * While a file is streamed uncompressed, the client regularly records a checkpoint: the number of bytes that are
+ * safely written to the {@link PartialFile} and the md5-hash of those bytes. When the client requests the same
+ * file again, it sends the checkpoint in {@link RequestFiles}. The server checks the hash against the beginning of
+ * its own copy, and only sends the remaining bytes if they match.
+ * <p>
+ * The manifest is stored in {@code config/bclib/cache/resume.nbt}. Entries that were not resumed within
+ * {@link #MAX_AGE_MS} are removed together with their partial files.
+ */
+@Environment(EnvType.CLIENT)
+class ResumeManifest {
+	private static final int VERSION = 1;
+	/**
+	 * Only files of at least this size are recorded
+	 */
+	static final long MIN_SIZE = 1024 * 1024;
+	/**
+	 * A new checkpoint is recorded at least whenever this many bytes were received, see {@link #checkpointInterval}
+	 */
+	static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+	private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+	private static final Path MANIFEST_FILE = FabricLoader.getInstance()
+														  .getConfigDir()
+														  .resolve(BCLib.MOD_ID)
+														  .resolve("cache")
+														  .resolve("resume.nbt");
+
+	/**
+	 * A partially received file.
+	 *
+	 * @param key       The file this is part of, see {@link #keyOf(AutoSyncID)}
+	 * @param hash      The hash of the complete file, as announced by the server
+	 * @param path      The {@link PartialFile}
+	 * @param offset    The number of bytes that were received
+	 * @param prefixMd5 The md5-hash of the received bytes
+	 * @param modified  The time of the last checkpoint
+	 */
+	record Entry(String key, FileHash hash, Path path, long offset, byte[] prefixMd5, long modified) {
+	}
+
+	private static Map<String, Entry> entries;
+
+	/**
+	 * Returns the number of bytes between two checkpoints of a file. Files smaller than {@link #CHECKPOINT_BYTES}
+	 * are checkpointed at every quarter, so an interrupted transfer of a file of {@link #MIN_SIZE} can continue as
+	 * well.
+	 *
+	 * @param size The size of the file
+	 * @return The checkpoint interval
+	 */
+	static long checkpointInterval(long size) {
+		return Math.max(1, Math.min(CHECKPOINT_BYTES, size / 4));
+	}
+
+	/**
+	 * Builds a key that identifies a requested file independent of its content.
+	 */
+	static String keyOf(AutoSyncID id) {
+		if (id instanceof AutoSyncID.ForDirectFileRequest freq) {
+			return id.uniqueID + "/" + freq.relFile.toString().replace('\\', '/');
+		}
+		if (id instanceof AutoFileSyncEntry.ForDirectFileRequest freq) {
+			return id.uniqueID + "/" + freq.relFile.toString().replace('\\', '/');
+		}
+		//the content is verified against the hash of the server, so any version of a mod can be resumed
+		return id.modID + ":" + id.uniqueID;
+	}
+
+	static synchronized Entry get(String key) {
+		return load().get(key);
+	}
+
+	static synchronized void put(Entry entry) {
+		load().put(entry.key, entry);
+		save();
+	}
+
+	static synchronized void remove(String key) {
+		if (load().remove(key) != null) {
+			save();
+		}
+	}
+
+	private static Map<String, Entry> load() {
+		if (entries != null) {
+			return entries;
+		}
+		entries = new HashMap<>();
+		if (!Files.exists(MANIFEST_FILE)) {
+			return entries;
+		}
+
+		boolean changed = false;
+		try {
+			CompoundTag root = NbtIo.readCompressed(MANIFEST_FILE.toFile());
+			if (root.getInt("version") != VERSION) {
+				return entries;
+			}
+			ListTag list = root.getList("entries", Tag.TAG_COMPOUND);
+			final long now = System.currentTimeMillis();
+			for (int i = 0; i < list.size(); i++) {
+				CompoundTag tag = list.getCompound(i);
+				FileHash hash = FileHash.deserialize(new FriendlyByteBuf(Unpooled.wrappedBuffer(tag.getByteArray("hash"))));
+				Entry entry = new Entry(tag.getString("key"), hash, Paths.get(tag.getString("path")), tag.getLong("offset"), tag.getByteArray("prefixMd5"), tag.getLong("modified"));
+				if (now - entry.modified > MAX_AGE_MS || !Files.isRegularFile(entry.path)) {
+					Files.deleteIfExists(entry.path);
+					changed = true;
+					continue;
+				}
+				entries.put(entry.key, entry);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			BCLib.LOGGER.warning("Failed to read resume manifest: " + e.getMessage());
+		}
+
+		if (changed) {
+			save();
+		}
+		return entries;
+	}
+
+	private static void save() {
+		ListTag list = new ListTag();
+		entries.values().forEach(entry -> {
+			FriendlyByteBuf hash = new FriendlyByteBuf(Unpooled.buffer());
+			entry.hash.serialize(hash);
+			byte[] hashBytes = new byte[hash.readableBytes()];
+			hash.readBytes(hashBytes);
+
+			CompoundTag tag = new CompoundTag();
+			tag.putString("key", entry.key);
+			tag.putByteArray("hash", hashBytes);
+			tag.putString("path", entry.path.toString());
+			tag.putLong("offset", entry.offset);
+			tag.putByteArray("prefixMd5", entry.prefixMd5);
+			tag.putLong("modified", entry.modified);
+			list.add(tag);
+		});
+
+		CompoundTag root = new CompoundTag();
+		root.putInt("version", VERSION);
+		root.put("entries", list);
+		try {
+			Files.createDirectories(MANIFEST_FILE.getParent());
+			final Path tempFile = MANIFEST_FILE.resolveSibling(MANIFEST_FILE.getFileName() + ".tmp");
+			NbtIo.writeCompressed(root, tempFile.toFile());
+			Files.move(tempFile, MANIFEST_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.error("Failed to write resume manifest: " + e.getMessage());
+		}
+	}
+}
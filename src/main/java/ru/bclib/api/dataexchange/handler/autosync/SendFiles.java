@@ -9,6 +9,7 @@ import net.minecraft.resources.ResourceLocation;
 import ru.bclib.BCLib;
 import ru.bclib.api.dataexchange.DataHandler;
 import ru.bclib.api.dataexchange.DataHandlerDescriptor;
+import ru.bclib.api.dataexchange.FileHash;
 import ru.bclib.config.Configs;
 import ru.bclib.gui.screens.ConfirmRestartScreen;
 import ru.bclib.util.Pair;
@@ -19,8 +20,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SendFiles extends DataHandler.FromServer {
@@ -28,15 +32,27 @@ public class SendFiles extends DataHandler.FromServer {
 	
 	protected List<AutoFileSyncEntry> files;
 	private String token;
+	private SyncCompression compression;
+	private Map<AutoFileSyncEntry, DeltaTransfer.Signature> signatures;
 	
 	public SendFiles() {
 		this(null, "");
 	}
 	
 	public SendFiles(List<AutoFileSyncEntry> files, String token) {
+		this(files, token, null, Map.of());
+	}
+	
+	/**
+	 * @param compression The codec the client requested, or {@code null} if the client does not support compression
+	 * @param signatures  Signatures of the local copies on the client, used for delta transfers
+	 */
+	SendFiles(List<AutoFileSyncEntry> files, String token, SyncCompression compression, Map<AutoFileSyncEntry, DeltaTransfer.Signature> signatures) {
 		super(DESCRIPTOR.IDENTIFIER);
 		this.files = files;
 		this.token = token;
+		this.compression = compression;
+		this.signatures = signatures;
 	}
 	
 	@Override
@@ -72,9 +88,28 @@ public class SendFiles extends DataHandler.FromServer {
 		buf.writeInt(existingFiles.size());
 		
 		BCLib.LOGGER.info("Sending " + existingFiles.size() + " Files to Client:");
+		long totalRaw = 0;
+		long totalSent = 0;
+		final long startTime = System.nanoTime();
 		for (AutoFileSyncEntry entry : existingFiles) {
-			int length = entry.serializeContent(buf);
-			BCLib.LOGGER.info("	- " + entry + " (" + PathUtil.humanReadableFileSize(length) + ")");
+			final int start = buf.writerIndex();
+			int length = entry.serializeContent(buf, compression, signatures.get(entry));
+			final int sent = buf.writerIndex() - start;
+			totalRaw += length;
+			totalSent += sent;
+			BCLib.LOGGER.info("	- " + entry + " (" + PathUtil.humanReadableFileSize(length) + (compression == null ? "" : ", sent " + PathUtil.humanReadableFileSize(sent)) + ")");
+		}
+		
+		if (compression != null) {
+			BCLib.LOGGER.info(String.format(
+				Locale.ROOT,
+				"Transfer uses %s: %s instead of %s (%.1f%% saved), took %dms",
+				compression,
+				PathUtil.humanReadableFileSize(totalSent),
+				PathUtil.humanReadableFileSize(totalRaw),
+				totalRaw == 0 ? 0.0 : 100.0 * (totalRaw - totalSent) / totalRaw,
+				(System.nanoTime() - startTime) / 1000000
+			));
 		}
 	}
 	
@@ -92,27 +127,17 @@ public class SendFiles extends DataHandler.FromServer {
 				return;
 			}
 			RequestFiles.newToken();
+			final SyncCompression compression = RequestFiles.currentCompression;
 			
 			int size = buf.readInt();
 			receivedFiles = new ArrayList<>(size);
 			BCLib.LOGGER.info("Server sent " + size + " Files:");
 			for (int i = 0; i < size; i++) {
-				Triple<AutoFileSyncEntry, byte[], AutoSyncID> p = AutoFileSyncEntry.deserializeContent(buf);
+				Triple<AutoFileSyncEntry, byte[], AutoSyncID> p = AutoFileSyncEntry.deserializeContent(buf, compression);
 				if (p.first != null) {
-					final String type;
-					if (p.first.isConfigFile() &&  Configs.CLIENT_CONFIG.isAcceptingConfigs()) {
-						receivedFiles.add(p);
-						type = "Accepted Config ";
-					} else if (p.first instanceof  AutoFileSyncEntry.ForModFileRequest &&  Configs.CLIENT_CONFIG.isAcceptingMods()){
-						receivedFiles.add(p);
-						type = "Accepted Mod ";
-					} else if ( Configs.CLIENT_CONFIG.isAcceptingFiles()){
+					if (acceptFile(p.first, p.second.length)) {
 						receivedFiles.add(p);
-						type = "Accepted File ";
-					} else {
-						type = "Ignoring ";
 					}
-					BCLib.LOGGER.info("	- " + type  + p.first + " (" + PathUtil.humanReadableFileSize(p.second.length) + ")");
 				}
 				else {
 					BCLib.LOGGER.error("   - Failed to receive File " + p.third + ", possibly sent from a Mod that is not installed on the client.");
@@ -134,17 +159,103 @@ public class SendFiles extends DataHandler.FromServer {
 				
 				writeSyncedFile(e, data, e.fileName);
 			}
+			DownloadCache.cleanup();
 			
 			showConfirmRestart(client);
 		}
 	}
 	
 	
+	/**
+	 * Checks if the client configuration allows to write a received file.
+	 *
+	 * @param entry The local entry of the file
+	 * @param size  The size of the received content
+	 * @return {@code true} if the file should be written
+	 */
+	@Environment(EnvType.CLIENT)
+	static boolean acceptFile(AutoFileSyncEntry entry, int size) {
+		final String type;
+		final boolean accepted;
+		if (entry.isConfigFile() &&  Configs.CLIENT_CONFIG.isAcceptingConfigs()) {
+			accepted = true;
+			type = "Accepted Config ";
+		} else if (entry instanceof  AutoFileSyncEntry.ForModFileRequest &&  Configs.CLIENT_CONFIG.isAcceptingMods()){
+			accepted = true;
+			type = "Accepted Mod ";
+		} else if ( Configs.CLIENT_CONFIG.isAcceptingFiles()){
+			accepted = true;
+			type = "Accepted File ";
+		} else {
+			accepted = false;
+			type = "Ignoring ";
+		}
+		BCLib.LOGGER.info("	- " + type  + entry + " (" + PathUtil.humanReadableFileSize(size) + ")");
+		return accepted;
+	}
+	
 	@Environment(EnvType.CLIENT)
 	static void writeSyncedFile(AutoSyncID e, byte[] data, File fileName) {
+		writeSyncedFile(e, fileName, data.length, FileHash.create(data), path -> writeViaTempFile(path, tempFile -> Files.write(tempFile, data)));
+	}
+	
+	/**
+	 * Copies a file from the {@link DownloadCache} to its destination.
+	 *
+	 * @param hash The hash the cached file was verified against
+	 * @return {@code true} if the file was written
+	 */
+	@Environment(EnvType.CLIENT)
+	static boolean copySyncedFile(AutoSyncID e, Path cached, FileHash hash, File fileName) {
+		long size;
+		try {
+			size = Files.size(cached);
+		}
+		catch (IOException ex) {
+			return false;
+		}
+		return writeSyncedFile(e, fileName, size, hash, path -> writeViaTempFile(path, tempFile -> Files.copy(cached, tempFile, StandardCopyOption.REPLACE_EXISTING)));
+	}
+	
+	/**
+	 * Writes next to the target first, so a failed write does not leave a broken file behind.
+	 */
+	private static void writeViaTempFile(Path path, ContentWriter writer) throws IOException {
+		final Path tempFile = Files.createTempFile(path.getParent(), PartialFile.PREFIX, PartialFile.SUFFIX);
+		try {
+			writer.writeTo(tempFile);
+			PartialFile.moveIntoPlace(tempFile, path);
+		}
+		finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+	
+	/**
+	 * Moves a file that was received and verified by a {@link FileStream} to its destination.
+	 */
+	@Environment(EnvType.CLIENT)
+	static void moveSyncedFile(AutoSyncID e, PartialFile received, File fileName) {
+		long size;
+		try {
+			size = Files.size(received.path);
+		}
+		catch (IOException ex) {
+			size = 0;
+		}
+		writeSyncedFile(e, fileName, size, received.getVerifiedHash(), path -> PartialFile.moveIntoPlace(received.path, path));
+		received.discard();
+	}
+	
+	private interface ContentWriter {
+		void writeTo(Path path) throws IOException;
+	}
+	
+	@Environment(EnvType.CLIENT)
+	private static boolean writeSyncedFile(AutoSyncID e, File fileName, long size, FileHash hash, ContentWriter writer) {
 		if (fileName!=null && !PathUtil.isChildOf(PathUtil.GAME_FOLDER, fileName.toPath())){
 			BCLib.LOGGER.error(fileName + " is not within game folder " + PathUtil.GAME_FOLDER);
-			return;
+			return false;
 		}
 		
 		if (!PathUtil.MOD_BAK_FOLDER.toFile().exists()){
@@ -173,14 +284,17 @@ public class SendFiles extends DataHandler.FromServer {
 			} while (path.toFile().exists());
 		}
 		
-		BCLib.LOGGER.info("	- Writing " + path + " (" + PathUtil.humanReadableFileSize(data.length) + ")");
+		BCLib.LOGGER.info("	- Writing " + path + " (" + PathUtil.humanReadableFileSize(size) + ")");
 		try {
 			final File parentFile = path.getParent()
 										.toFile();
 			if (!parentFile.exists()) {
 				parentFile.mkdirs();
 			}
-			Files.write(path, data);
+			writer.writeTo(path);
+			if (!(e instanceof AutoFileSyncEntry.ForModFileRequest)) {
+				DownloadCache.store(path, hash);
+			}
 			if (removeAfter != null){
 				final String bakFileName = removeAfter.toFile().getName();
 				String collisionFreeName = bakFileName;
@@ -196,16 +310,21 @@ public class SendFiles extends DataHandler.FromServer {
 				removeAfter.toFile().renameTo(targetPath.toFile());
 			}
 			AutoSync.didReceiveFile(e, fileName);
-			
-			
+			return true;
 		}
 		catch (IOException ioException) {
 			BCLib.LOGGER.error("	--> Writing " + fileName + " failed: " + ioException);
+			return false;
 		}
 	}
 	
 	@Environment(EnvType.CLIENT)
 	protected void showConfirmRestart(Minecraft client) {
+		confirmRestart(client);
+	}
+	
+	@Environment(EnvType.CLIENT)
+	static void confirmRestart(Minecraft client) {
 		client.setScreen(new ConfirmRestartScreen(() -> {
 			Minecraft.getInstance()
 					 .setScreen(null);
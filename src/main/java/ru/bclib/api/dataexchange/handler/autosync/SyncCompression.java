@@ -0,0 +1,270 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import net.minecraft.network.FriendlyByteBuf;
+import ru.bclib.api.dataexchange.FileHash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The codecs that can be used to compress file content sent by {@link SendFiles}.
+ * <p>
+ * The client lists the codecs it supports in {@link HelloServer}, the server picks the first one of its own
+ * preference order (the declaration order of this enum) that the client supports and announces the choice in
+ * {@link HelloClient}. The client repeats the choice in {@link RequestFiles}. Clients or servers that do not
+ * know about compression never send the additional data, so both sides fall back to uncompressed transfers.
+ * <p>
+ * Compressed content is cached on the server, keyed by the hash of the uncompressed data, so a file that is
+ * requested by many clients is only compressed once.
+ */
+enum SyncCompression {
+	DEFLATE(1) {
+		@Override
+		byte[] compress(byte[] data) {
+			final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			try {
+				deflater.setInput(data);
+				deflater.finish();
+				final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+				final byte[] buffer = new byte[64 * 1024];
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				return out.toByteArray();
+			}
+			finally {
+				deflater.end();
+			}
+		}
+
+		@Override
+		byte[] decompress(byte[] data, int rawLength) throws IOException {
+			checkDecodedSize(rawLength);
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data);
+				final byte[] result = new byte[rawLength];
+				int offset = 0;
+				while (offset < rawLength && !inflater.finished()) {
+					final int count = inflater.inflate(result, offset, rawLength - offset);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					offset += count;
+				}
+				if (offset != rawLength || !inflater.finished()) {
+					throw new IOException("Compressed content does not match the announced size");
+				}
+				return result;
+			}
+			catch (DataFormatException e) {
+				throw new IOException("Invalid compressed content", e);
+			}
+			finally {
+				inflater.end();
+			}
+		}
+
+		@Override
+		Decoder newDecoder() {
+			final Inflater inflater = new Inflater();
+			final byte[] buffer = new byte[32 * 1024];
+			return new Decoder() {
+				@Override
+				public void update(byte[] data, int offset, int length, PartialFile out) throws IOException {
+					inflater.setInput(data, offset, length);
+					try {
+						while (!inflater.finished()) {
+							final int count = inflater.inflate(buffer);
+							if (count > 0) {
+								out.write(buffer, 0, count);
+							}
+							else if (inflater.needsInput()) {
+								break;
+							}
+							else if (inflater.needsDictionary()) {
+								throw new IOException("Invalid compressed content");
+							}
+						}
+					}
+					catch (DataFormatException e) {
+						throw new IOException("Invalid compressed content", e);
+					}
+				}
+
+				@Override
+				public boolean finished() {
+					return inflater.finished();
+				}
+
+				@Override
+				public void close() {
+					inflater.end();
+				}
+			};
+		}
+	},
+	NONE(0) {
+		@Override
+		byte[] compress(byte[] data) {
+			return data;
+		}
+
+		@Override
+		byte[] decompress(byte[] data, int rawLength) {
+			return data;
+		}
+
+		@Override
+		Decoder newDecoder() {
+			return new Decoder() {
+				@Override
+				public void update(byte[] data, int offset, int length, PartialFile out) throws IOException {
+					out.write(data, offset, length);
+				}
+
+				@Override
+				public boolean finished() {
+					return true;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	};
+
+	/**
+	 * Decompresses content that arrives in several pieces.
+	 */
+	interface Decoder {
+		/**
+		 * Decompresses the next piece and appends the result to the file.
+		 */
+		void update(byte[] data, int offset, int length, PartialFile out) throws IOException;
+
+		/**
+		 * @return {@code true} if the end of the compressed content was reached
+		 */
+		boolean finished();
+
+		void close();
+	}
+
+	/**
+	 * Total size of compressed content that is kept in the server cache
+	 */
+	private static final long CACHE_BYTES = 64 * 1024 * 1024;
+	private static final Map<String, byte[]> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+	private static long cachedBytes = 0;
+
+	final byte id;
+
+	SyncCompression(int id) {
+		this.id = (byte) id;
+	}
+
+	/**
+	 * Validates the announced size of content that is about to be decoded in memory, before anything is allocated.
+	 * The server streams files larger than {@link FileStreamSender#MAX_ENCODED_SIZE} instead of encoding them in
+	 * memory, so larger sizes are rejected.
+	 *
+	 * @param size The announced size of the decoded content
+	 * @throws IOException if the size is negative or too large
+	 */
+	static void checkDecodedSize(int size) throws IOException {
+		if (size < 0 || size > FileStreamSender.MAX_ENCODED_SIZE) {
+			throw new IOException("Invalid content size " + size);
+		}
+	}
+
+	abstract byte[] compress(byte[] data);
+
+	abstract byte[] decompress(byte[] data, int rawLength) throws IOException;
+
+	abstract Decoder newDecoder();
+
+	/**
+	 * Returns the compressed form of the data, compressing it only if it is not cached already.
+	 *
+	 * @param data The uncompressed content
+	 * @return The compressed content
+	 */
+	byte[] compressCached(byte[] data) {
+		if (this == NONE) {
+			return data;
+		}
+
+		final String key;
+		try {
+			key = name() + ":" + FileHash.toHexString(MessageDigest.getInstance("MD5").digest(data)) + ":" + data.length;
+		}
+		catch (NoSuchAlgorithmException e) {
+			return compress(data);
+		}
+
+		synchronized (CACHE) {
+			final byte[] cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		final byte[] compressed = compress(data);
+		synchronized (CACHE) {
+			if (compressed.length <= CACHE_BYTES && CACHE.put(key, compressed) == null) {
+				cachedBytes += compressed.length;
+				final Iterator<byte[]> it = CACHE.values().iterator();
+				while (cachedBytes > CACHE_BYTES && it.hasNext()) {
+					cachedBytes -= it.next().length;
+					it.remove();
+				}
+			}
+		}
+		return compressed;
+	}
+
+	static SyncCompression byID(int id) {
+		for (SyncCompression c : values()) {
+			if (c.id == id) return c;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Writes all codecs this side supports.
+	 */
+	static void writeSupported(FriendlyByteBuf buf) {
+		final SyncCompression[] values = values();
+		buf.writeVarInt(values.length);
+		for (SyncCompression c : values) {
+			buf.writeByte(c.id);
+		}
+	}
+
+	/**
+	 * Reads the codecs the other side supports and picks the preferred one.
+	 *
+	 * @return The codec both sides support, {@link #NONE} if there is no such codec
+	 */
+	static SyncCompression readAndChoose(FriendlyByteBuf buf) {
+		final int count = buf.readVarInt();
+		boolean[] offered = new boolean[256];
+		for (int i = 0; i < count; i++) {
+			offered[buf.readByte() & 0xFF] = true;
+		}
+		for (SyncCompression c : values()) {
+			if (offered[c.id & 0xFF]) return c;
+		}
+		return NONE;
+	}
+}
@@ -9,9 +9,19 @@ import ru.bclib.api.dataexchange.handler.autosync.AutoSyncID.ForDirectFileReques
 import ru.bclib.config.Configs;
 import ru.bclib.util.PathUtil;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 public class SyncFolderDescriptor {
@@ -62,7 +72,22 @@ public class SyncFolderDescriptor {
 	@NotNull
 	public final Path localFolder;
 	
-	private List<SubFile> fileCache;
+	/**
+	 * Files are hashed on a small pool, the hashing itself is mostly bound by disk reads.
+	 */
+	private static final int HASH_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final ExecutorService HASHER;
+	static {
+		final AtomicInteger counter = new AtomicInteger();
+		HASHER = Executors.newFixedThreadPool(HASH_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "BCLib AutoSync Hasher #" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	//maps the relative path to the file, files are ordered by their relative path
+	private Map<String, SubFile> fileCache;
 	
 	public SyncFolderDescriptor(String folderID, Path localFolder, boolean removeAdditionalFiles) {
 		this.removeAdditionalFiles = removeAdditionalFiles;
@@ -95,19 +120,20 @@ public class SyncFolderDescriptor {
 		return folderID.hashCode();
 	}
 	
-	public int fileCount() {
+	public synchronized int fileCount() {
 		return fileCache == null ? 0 : fileCache.size();
 	}
 	
-	public void invalidateCache() {
+	public synchronized void invalidateCache() {
 		fileCache = null;
+		AutoSync.invalidateHelloPayload();
 	}
 	
-	public void loadCache() {
+	public synchronized void loadCache() {
 		if (fileCache == null) {
-			fileCache = new ArrayList<>(8);
-			PathUtil.fileWalker(localFolder.toFile(), p -> fileCache.add(new SubFile(localFolder.relativize(p)
-																								.toString(), FileHash.create(p.toFile()))));
+			final List<Path> files = new ArrayList<>(8);
+			PathUtil.fileWalker(localFolder.toFile(), files::add);
+			fileCache = hashFiles(files);
 			
 			/*//this tests if we can trick the system to load files that are not beneath the base-folder
 			if (!BCLib.isClient()) {
@@ -116,14 +142,86 @@ public class SyncFolderDescriptor {
 		}
 	}
 	
-	public void serialize(FriendlyByteBuf buf) {
+	/**
+	 * Hashes the given files on the {@link #HASHER} pool.
+	 *
+	 * @param files Absolute paths of files within this folder
+	 * @return The hashed files, ordered by their relative path
+	 */
+	private Map<String, SubFile> hashFiles(List<Path> files) {
+		//the walker returns files in filesystem order, sort them to send a stable list to clients
+		files.sort(Comparator.comparing(p -> localFolder.relativize(p).toString()));
+		
+		final List<Future<FileHash>> hashes = new ArrayList<>(files.size());
+		files.forEach(p -> hashes.add(HASHER.submit(() -> FileHash.create(p.toFile()))));
+		
+		final Map<String, SubFile> cache = new LinkedHashMap<>(files.size() * 2);
+		for (int i = 0; i < files.size(); i++) {
+			final String relPath = localFolder.relativize(files.get(i)).toString();
+			try {
+				cache.put(relPath, new SubFile(relPath, hashes.get(i).get()));
+			}
+			catch (ExecutionException e) {
+				BCLib.LOGGER.error("Failed to hash " + files.get(i) + ": " + e.getCause());
+			}
+			catch (InterruptedException e) {
+				hashes.forEach(f -> f.cancel(true));
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while hashing sync folder " + folderID, e);
+			}
+		}
+		return cache;
+	}
+	
+	/**
+	 * Updates the entries for a path within this folder after it was changed on disk. The path may point to a file or
+	 * a folder that was created, modified, deleted or renamed. Does nothing if the cache was not loaded yet.
+	 *
+	 * @param absPath The absolute path that changed
+	 */
+	synchronized void updatePath(Path absPath) {
+		if (fileCache == null) {
+			return;
+		}
+		
+		final Path rel = localFolder.relativize(absPath);
+		for (Path part : rel) {
+			if (part.toString().startsWith(".")) return;
+		}
+		
+		//drop the old entry and, if the path was a folder, everything below it
+		final String relPath = rel.toString();
+		final String folderPrefix = relPath + File.separator;
+		fileCache.keySet().removeIf(key -> key.equals(relPath) || key.startsWith(folderPrefix));
+		AutoSync.invalidateHelloPayload();
+		
+		final List<Path> files = new ArrayList<>(1);
+		if (Files.isDirectory(absPath)) {
+			PathUtil.fileWalker(absPath.toFile(), files::add);
+		}
+		else if (Files.isRegularFile(absPath)) {
+			files.add(absPath);
+		}
+		if (files.isEmpty()) {
+			return;
+		}
+		
+		fileCache.putAll(hashFiles(files));
+		final List<String> keys = new ArrayList<>(fileCache.keySet());
+		keys.sort(Comparator.naturalOrder());
+		final Map<String, SubFile> sorted = new LinkedHashMap<>(keys.size() * 2);
+		keys.forEach(key -> sorted.put(key, fileCache.get(key)));
+		fileCache = sorted;
+	}
+	
+	public synchronized void serialize(FriendlyByteBuf buf) {
 		final boolean debugHashes = Configs.CLIENT_CONFIG.getBoolean(AutoSync.SYNC_CATEGORY, "debugHashes", false);
 		loadCache();
 		
 		DataHandler.writeString(buf, folderID);
 		buf.writeBoolean(removeAdditionalFiles);
 		buf.writeInt(fileCache.size());
-		fileCache.forEach(fl -> {
+		fileCache.values().forEach(fl -> {
 			BCLib.LOGGER.info("	  - " + fl.relPath);
 			if (debugHashes) {
 				BCLib.LOGGER.info("		" + fl.hash);
@@ -141,7 +239,7 @@ public class SyncFolderDescriptor {
 		final SyncFolderDescriptor desc;
 		if (localDescriptor != null) {
 			desc = new SyncFolderDescriptor(folderID, localDescriptor.localFolder, localDescriptor.removeAdditionalFiles && remAddFiles);
-			desc.fileCache = new ArrayList<>(count);
+			desc.fileCache = new LinkedHashMap<>(count * 2);
 		}
 		else {
 			BCLib.LOGGER.warning(BCLib.isClient() ? "Client" : "Server" + " does not know Sync-Folder ID '" + folderID + "'");
@@ -150,18 +248,15 @@ public class SyncFolderDescriptor {
 		
 		for (int i = 0; i < count; i++) {
 			SubFile relPath = SubFile.deserialize(buf);
-			if (desc != null) desc.fileCache.add(relPath);
+			if (desc != null) desc.fileCache.put(relPath.relPath, relPath);
 		}
 		
 		return desc;
 	}
 	
 	//Note: make sure loadCache was called before using this
-	boolean hasRelativeFile(String relFile) {
-		return fileCache.stream()
-						.filter(sf -> sf.equals(relFile))
-						.findFirst()
-						.isPresent();
+	synchronized boolean hasRelativeFile(String relFile) {
+		return fileCache.containsKey(relFile);
 	}
 	
 	//Note: make sure loadCache was called before using this
@@ -170,16 +265,13 @@ public class SyncFolderDescriptor {
 	}
 	
 	//Note: make sure loadCache was called before using this
-	SubFile getLocalSubFile(String relPath) {
-		return fileCache.stream()
-						.filter(sf -> sf.relPath.equals(relPath))
-						.findFirst()
-						.orElse(null);
+	synchronized SubFile getLocalSubFile(String relPath) {
+		return fileCache.get(relPath);
 	}
 	
-	Stream<SubFile> relativeFilesStream() {
+	synchronized Stream<SubFile> relativeFilesStream() {
 		loadCache();
-		return fileCache.stream();
+		return new ArrayList<>(fileCache.values()).stream();
 	}
 	
 	public Path mapAbsolute(String relPath) {
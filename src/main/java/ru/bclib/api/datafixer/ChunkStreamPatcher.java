@@ -0,0 +1,250 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.nbt.Tag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies the binary NBT data of a chunk from an input to an output and rewrites the string values that are
+ * replaced by a {@link MigrationProfile} on the way, without building a {@link net.minecraft.nbt.CompoundTag} tree.
+ * <p>
+ * The patcher follows the same locations the tree based code in {@link DataFixerAPI} inspects: block palette
+ * {@code Name} entries, biome palette entries and {@code id} entries of entities, block entities and (nested)
+ * items. Both the pre 1.18 layout ({@code Level.Sections[].Palette}) and the 1.18 layout
+ * ({@code sections[].block_states.palette} and {@code sections[].biomes.palette}) are understood. All other data
+ * (including the packed block state and biome arrays) is copied unchanged.
+ * <p>
+ * Like vanilla's {@link net.minecraft.nbt.NbtAccounter}, documents that are nested deeper than {@link #MAX_DEPTH}
+ * levels are rejected.
+ */
+class ChunkStreamPatcher {
+	/**
+	 * Describes what kind of compound the patcher is currently copying.
+	 */
+	private enum Context {
+		NONE, ROOT, LEVEL, SECTION, BLOCK_STATES, BIOMES, PALETTE_ENTRY, BIOME_PALETTE, ID_HOLDER, ITEM_TAG
+	}
+
+	/**
+	 * Marks strings in {@link #seenIDs} and {@link #seenBiomes} that are not replaced
+	 */
+	private static final String KEEP = new String("");
+	/**
+	 * Same limit vanilla uses when a tag tree is read
+	 */
+	static final int MAX_DEPTH = 512;
+
+	private final MigrationProfile profile;
+	private final MigrationStats stats;
+	private final boolean logReplacements;
+	private final byte[] buffer = new byte[8192];
+	private final Map<String, String> seenIDs = new HashMap<>();
+	private final Map<String, String> seenBiomes = new HashMap<>();
+	private boolean changed;
+
+	ChunkStreamPatcher(MigrationProfile profile) {
+		this(profile, null, true);
+	}
+
+	/**
+	 * @param profile The {@link MigrationProfile} to apply
+	 * @param stats Receives a hit for every replaced ID, may be {@code null}
+	 * @param logReplacements {@code true} if every replacement should be logged (once per chunk)
+	 */
+	ChunkStreamPatcher(MigrationProfile profile, MigrationStats stats, boolean logReplacements) {
+		this.profile = profile;
+		this.stats = stats;
+		this.logReplacements = logReplacements;
+	}
+
+	/**
+	 * Copies a complete (uncompressed) NBT document from {@code input} to {@code output}.
+	 * @param input source of the chunk data.
+	 * @param output receives the patched chunk data.
+	 * @return {@code true} if any value was replaced.
+	 * @throws IOException if reading or writing fails or the data is no valid NBT document.
+	 */
+	boolean patch(DataInput input, DataOutput output) throws IOException {
+		changed = false;
+		seenIDs.clear();
+		seenBiomes.clear();
+		final byte type = input.readByte();
+		if (type != Tag.TAG_COMPOUND) {
+			throw new IOException("Root tag must be a named compound tag");
+		}
+		output.writeByte(type);
+		output.writeUTF(input.readUTF());
+		copyCompound(input, output, Context.ROOT, 0);
+		return changed;
+	}
+
+	private void copyCompound(DataInput input, DataOutput output, Context context, int depth) throws IOException {
+		checkDepth(depth);
+		byte type;
+		while ((type = input.readByte()) != Tag.TAG_END) {
+			final String key = input.readUTF();
+			output.writeByte(type);
+			output.writeUTF(key);
+
+			if (type == Tag.TAG_STRING) {
+				copyString(input, output, isReplaceable(context, key) ? context : Context.NONE);
+			}
+			else if (type == Tag.TAG_COMPOUND) {
+				copyCompound(input, output, getCompoundContext(context, key), depth + 1);
+			}
+			else if (type == Tag.TAG_LIST) {
+				copyList(input, output, getListContext(context, key), depth + 1);
+			}
+			else {
+				copyPayload(input, output, type);
+			}
+		}
+		output.writeByte(Tag.TAG_END);
+	}
+
+	private void copyList(DataInput input, DataOutput output, Context elementContext, int depth) throws IOException {
+		checkDepth(depth);
+		final byte type = input.readByte();
+		final int size = input.readInt();
+		output.writeByte(type);
+		output.writeInt(size);
+
+		for (int i = 0; i < size; i++) {
+			if (type == Tag.TAG_COMPOUND) {
+				copyCompound(input, output, elementContext, depth + 1);
+			}
+			else if (type == Tag.TAG_LIST) {
+				copyList(input, output, Context.NONE, depth + 1);
+			}
+			else if (type == Tag.TAG_STRING) {
+				copyString(input, output, elementContext == Context.BIOME_PALETTE ? elementContext : Context.NONE);
+			}
+			else {
+				copyPayload(input, output, type);
+			}
+		}
+	}
+
+	private static void checkDepth(int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+		}
+	}
+
+	private void copyString(DataInput input, DataOutput output, Context context) throws IOException {
+		final String value = input.readUTF();
+		if (context != Context.NONE) {
+			final String replace = lookup(value, context == Context.BIOME_PALETTE);
+			if (replace != KEEP) {
+				if (stats != null) {
+					stats.countID(value);
+				}
+				output.writeUTF(replace);
+				changed = true;
+				return;
+			}
+		}
+		output.writeUTF(value);
+	}
+
+	/**
+	 * Resolves a replacement once per chunk, palettes of different sections usually repeat the same IDs.
+	 */
+	private String lookup(String value, boolean biome) {
+		final Map<String, String> seen = biome ? seenBiomes : seenIDs;
+		String replace = seen.get(value);
+		if (replace == null) {
+			replace = biome ? profile.replaceBiomeFromIDs(value) : profile.replaceStringFromIDs(value);
+			if (replace == null) {
+				replace = KEEP;
+			}
+			else if (logReplacements) {
+				DataFixerAPI.LOGGER.warning("Replacing ID '{}' with '{}'.", value, replace);
+			}
+			seen.put(value, replace);
+		}
+		return replace;
+	}
+
+	private void copyPayload(DataInput input, DataOutput output, byte type) throws IOException {
+		switch (type) {
+			case Tag.TAG_BYTE -> copyBytes(input, output, 1);
+			case Tag.TAG_SHORT -> copyBytes(input, output, 2);
+			case Tag.TAG_INT, Tag.TAG_FLOAT -> copyBytes(input, output, 4);
+			case Tag.TAG_LONG, Tag.TAG_DOUBLE -> copyBytes(input, output, 8);
+			case Tag.TAG_BYTE_ARRAY -> copyArray(input, output, 1);
+			case Tag.TAG_INT_ARRAY -> copyArray(input, output, 4);
+			case Tag.TAG_LONG_ARRAY -> copyArray(input, output, 8);
+			case Tag.TAG_END -> {}
+			default -> throw new IOException("Unknown tag type " + type);
+		}
+	}
+
+	private void copyArray(DataInput input, DataOutput output, int elementSize) throws IOException {
+		final int length = input.readInt();
+		if (length < 0) {
+			throw new IOException("Negative array length " + length);
+		}
+		output.writeInt(length);
+		copyBytes(input, output, (long) length * elementSize);
+	}
+
+	private void copyBytes(DataInput input, DataOutput output, long count) throws IOException {
+		while (count > 0) {
+			final int size = (int) Math.min(count, buffer.length);
+			input.readFully(buffer, 0, size);
+			output.write(buffer, 0, size);
+			count -= size;
+		}
+	}
+
+	private static boolean isReplaceable(Context context, String key) {
+		return switch (context) {
+			case PALETTE_ENTRY -> key.equals("Name");
+			case ID_HOLDER -> key.equals("id");
+			default -> false;
+		};
+	}
+
+	private static Context getCompoundContext(Context context, String key) {
+		return switch (context) {
+			case ROOT -> key.equals("Level") ? Context.LEVEL : Context.NONE;
+			case SECTION -> switch (key) {
+				case "block_states" -> Context.BLOCK_STATES;
+				case "biomes" -> Context.BIOMES;
+				default -> Context.NONE;
+			};
+			case ID_HOLDER -> switch (key) {
+				case "Item" -> Context.ID_HOLDER;
+				case "tag" -> Context.ITEM_TAG;
+				default -> Context.NONE;
+			};
+			case ITEM_TAG -> key.equals("BlockEntityTag") ? Context.ID_HOLDER : Context.NONE;
+			default -> Context.NONE;
+		};
+	}
+
+	private static Context getListContext(Context context, String key) {
+		return switch (context) {
+			case ROOT -> switch (key) {
+				case "Entities", "block_entities" -> Context.ID_HOLDER;
+				case "sections" -> Context.SECTION;
+				default -> Context.NONE;
+			};
+			case LEVEL -> switch (key) {
+				case "TileEntities" -> Context.ID_HOLDER;
+				case "Sections" -> Context.SECTION;
+				default -> Context.NONE;
+			};
+			case SECTION -> key.equals("Palette") ? Context.PALETTE_ENTRY : Context.NONE;
+			case BLOCK_STATES -> key.equals("palette") ? Context.PALETTE_ENTRY : Context.NONE;
+			case BIOMES -> key.equals("palette") ? Context.BIOME_PALETTE : Context.NONE;
+			case ID_HOLDER -> key.equals("Items") || key.equals("Inventory") ? Context.ID_HOLDER : Context.NONE;
+			default -> Context.NONE;
+		};
+	}
+}
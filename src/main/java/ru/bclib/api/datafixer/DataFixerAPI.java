@@ -6,16 +6,19 @@ import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.toasts.SystemToast;
 import net.minecraft.client.gui.screens.Screen;
+import net.minecraft.client.gui.screens.TitleScreen;
 import net.minecraft.client.gui.screens.worldselection.EditWorldScreen;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.nbt.LongTag;
 import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NumericTag;
 import net.minecraft.nbt.StringTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.TranslatableComponent;
 import net.minecraft.world.level.ChunkPos;
-import net.minecraft.world.level.chunk.storage.RegionFile;
 import net.minecraft.world.level.storage.LevelResource;
 import net.minecraft.world.level.storage.LevelStorageSource;
 import net.minecraft.world.level.storage.LevelStorageSource.LevelStorageAccess;
@@ -30,12 +33,16 @@ import ru.bclib.gui.screens.LevelFixErrorScreen.Listener;
 import ru.bclib.gui.screens.ProgressScreen;
 import ru.bclib.util.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,6 +50,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipException;
 
 /**
@@ -51,22 +59,22 @@ import java.util.zip.ZipException;
 public class DataFixerAPI {
 	static final Logger LOGGER = new Logger("DataFixerAPI");
 	static class State {
-		public boolean didFail = false;
+		public volatile boolean didFail = false;
 		protected ArrayList<String> errors = new ArrayList<>();
 
-		public void addError(String s){
+		public synchronized void addError(String s){
 			errors.add(s);
 		}
 
-		public boolean hasError(){
+		public synchronized boolean hasError(){
 			return errors.size()>0;
 		}
 
-		public String getErrorMessage(){
+		public synchronized String getErrorMessage(){
 			return errors.stream().reduce("", (a, b) -> a + "  - " + b + "\n");
 		}
 
-		public String[] getErrorMessages(){
+		public synchronized String[] getErrorMessages(){
 			String[] res = new String[errors.size()];
 			return errors.toArray(res);
 		}
@@ -109,9 +117,11 @@ public class DataFixerAPI {
 	 * @param levelID The ID of the Level you want to patch
 	 * @param showUI {@code true}, if you want to present the user with a Screen that offers to backup the world
 	 *							  before applying the patches
-	 * @param onResume When this method retursn {@code true}, this function will be called when the world is ready
-	 * @return {@code true} if the UI was displayed. The UI is only displayed if {@code showUI} was {@code true} and
-	 * patches were enabled in the config and the Guardian did find any patches that need to be applied to the world.
+	 * @param onResume When this method retursn {@code true}, this function will be called when the world is ready.
+	 *							  It is not called after a dry run, which leaves the migration pending.
+	 * @return {@code true} if the level must not be loaded now. This is the case if the UI was displayed, which only
+	 * happens if {@code showUI} was {@code true} and patches were enabled in the config and the Guardian did find any
+	 * patches that need to be applied to the world, or if a dry run was performed.
 	 *
 	 */
 	public static boolean fixData(LevelStorageSource levelSource, String levelID, boolean showUI, Consumer<Boolean> onResume) {
@@ -124,9 +134,11 @@ public class DataFixerAPI {
 	 * @param levelStorageAccess The access class of the level you want to patch
 	 * @param showUI {@code true}, if you want to present the user with a Screen that offers to backup the world
 	 *							  before applying the patches
-	 * @param onResume When this method retursn {@code true}, this function will be called when the world is ready
-	 * @return {@code true} if the UI was displayed. The UI is only displayed if {@code showUI} was {@code true} and
-	 * patches were enabled in the config and the Guardian did find any patches that need to be applied to the world.
+	 * @param onResume When this method retursn {@code true}, this function will be called when the world is ready.
+	 *							  It is not called after a dry run, which leaves the migration pending.
+	 * @return {@code true} if the level must not be loaded now. This is the case if the UI was displayed, which only
+	 * happens if {@code showUI} was {@code true} and patches were enabled in the config and the Guardian did find any
+	 * patches that need to be applied to the world, or if a dry run was performed.
 	 *
 	 */
 	public static boolean fixData(LevelStorageSource.LevelStorageAccess levelStorageAccess, boolean showUI, Consumer<Boolean> onResume){
@@ -224,11 +236,25 @@ public class DataFixerAPI {
 			}
 
 			Supplier<State> runner = () -> {
-				if (createBackup) {
+				if (createBackup && applyFixes && Configs.MAIN_CONFIG.snapshotBackup()) {
+					progress.progressStage(new TranslatableComponent("message.bclib.datafixer.progress.snapshot"));
+					//the zip backup is skipped in favour of the snapshot, so never patch the world without one
+					if (!createSnapshot(dir, profile)) {
+						final State state = new State();
+						state.didFail = true;
+						state.addError("Failed to create a snapshot of the world, no patches were applied");
+						progress.stop();
+						return state;
+					}
+				}
+				else if (createBackup) {
 					progress.progressStage(new TranslatableComponent("message.bclib.datafixer.progress.waitbackup"));
 					EditWorldScreen.makeBackupAndShowToast(Minecraft.getInstance().getLevelSource(), levelID);
 				}
 
+				if (applyFixes && Configs.MAIN_CONFIG.dryRunPatches()) {
+					return runDryRun(dir, profile, progress);
+				}
 				if (applyFixes) {
 					return runDataFixes(dir, profile, progress);
 				}
@@ -244,7 +270,9 @@ public class DataFixerAPI {
 							 .execute(() -> {
 								 if (profile != null && showUI) {
 									 //something went wrong, show the user our error
-									 if (state.didFail || state.hasError()){
+									 if (applyFixes && Configs.MAIN_CONFIG.dryRunPatches()) {
+									 	showDryRunFinished(levelID);
+									 } else if (state.didFail || state.hasError()){
 									 	showLevelFixErrorScreen(state, (markFixed)->{
 											if (markFixed) {
 												profile.markApplied();
@@ -270,17 +298,33 @@ public class DataFixerAPI {
 		
 		//we have some migrations
 		if (profile != null) {
+			//a dry run does not change the world, no need to ask for a backup. The migration is still pending
+			//afterwards, so the level must not be loaded
+			if (Configs.MAIN_CONFIG.dryRunPatches()) {
+				BCLib.LOGGER.info("Testing Fixes on Level (dry run)");
+				runFixes.accept(false, true);
+				if (!showUI) {
+					BCLib.LOGGER.warning("Dry run finished, the level will not be loaded. Disable 'dryRunPatches' to apply the fixes.");
+				}
+				return true;
+			}
 			//display the confirm UI.
 			if (showUI){
 				showBackupWarning(levelID, runFixes);
 				return true;
 			} else {
 				BCLib.LOGGER.warning("Applying Fixes on Level");
-				runFixes.accept(false, true);
+				runFixes.accept(Configs.MAIN_CONFIG.snapshotBackup(), true);
 			}
 		}
 		return false;
 	}
+	@Environment(EnvType.CLIENT)
+	private static void showDryRunFinished(String levelID){
+		Minecraft.getInstance().setScreen(new TitleScreen());
+		SystemToast.add(Minecraft.getInstance().getToasts(), SystemToast.SystemToastIds.WORLD_BACKUP, new TranslatableComponent("title.bclib.datafixer.dryrun"), new TranslatableComponent("message.bclib.datafixer.dryrun", levelID));
+	}
+
 	@Environment(EnvType.CLIENT)
 	private static void showLevelFixErrorScreen(State state, Listener onContinue){
 		Minecraft.getInstance().setScreen(new LevelFixErrorScreen(Minecraft.getInstance().screen, state.getErrorMessages(), onContinue));
@@ -315,6 +359,43 @@ public class DataFixerAPI {
 		Minecraft.getInstance().setScreen(new ConfirmFixScreen((Screen) null, whenFinished::accept));
 	}
 
+	private static boolean createSnapshot(File dir, MigrationProfile profile) {
+		try {
+			WorldSnapshot snapshot = WorldSnapshot.create(dir, region -> mayNeedRegionFix(profile, region));
+			LOGGER.info("Created {}, use WorldSnapshot#restore to undo the patches or WorldSnapshot#delete to remove it.", snapshot);
+			return true;
+		}
+		catch (IOException | RuntimeException e) {
+			BCLib.LOGGER.error("Failed to create a snapshot of " + dir);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if any chunk in a region file may be changed by the {@link MigrationProfile}, without patching it.
+	 * The region is read with a {@link RegionFileReader}, so the file is never changed.
+	 * @param profile The profile that will be applied
+	 * @param file The region file
+	 * @return {@code true} if the region may be changed or could not be read
+	 */
+	static boolean mayNeedRegionFix(MigrationProfile profile, File file) {
+		try (RegionFileReader region = new RegionFileReader(file.toPath())) {
+			for (int x = 0; x < 32; x++) {
+				for (int z = 0; z < 32; z++) {
+					byte[] chunkData = region.readChunk(new ChunkPos(x, z));
+					if (chunkData != null && profile.mayNeedChunkFix(chunkData)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		catch (IOException e) {
+			return true;
+		}
+	}
+	
 	private static State runDataFixes(File dir, MigrationProfile profile, AtomicProgressListener progress) {
 		State state = new State();
 		progress.resetAtomic();
@@ -346,22 +427,85 @@ public class DataFixerAPI {
 		progress.incAtomic(maxProgress);
 
 		progress.progressStage(new TranslatableComponent("message.bclib.datafixer.progress.regions"));
-		regions.parallelStream().forEach((file) -> {
-			fixRegion(profile, state, file);
-			progress.incAtomic(maxProgress);
-		});
+		MigrationJournal journal = MigrationJournal.load(dir, profile, Configs.MAIN_CONFIG.forceFullScan());
+		MigrationStats stats = new MigrationStats(false);
+		new RegionFixPipeline(profile, state, journal, stats, progress, maxProgress).run(regions);
+		stats.finish();
 		
 		if (!state.didFail) {
+			journal.delete();
 			progress.progressStage(new TranslatableComponent("message.bclib.datafixer.progress.saving"));
 			profile.markApplied();
 			WorldDataAPI.saveFile(BCLib.MOD_ID);
 		}
+		else {
+			journal.save();
+		}
 		progress.incAtomic(maxProgress);
 
 		progress.stop();
 
 		return state;
 	}
+
+	/**
+	 * Tests the {@link MigrationProfile} against all players, the level.dat and all regions of a world without
+	 * changing any file. The result is logged and written to {@code bclib_migration_report.json} in the world folder.
+	 */
+	private static State runDryRun(File dir, MigrationProfile profile, AtomicProgressListener progress) {
+		final State state = new State();
+		MigrationStats stats = new MigrationStats(true);
+		progress.resetAtomic();
+
+		progress.progressStage(new TranslatableComponent("message.bclib.datafixer.progress.reading"));
+		List<File> players = getAllPlayers(dir);
+		List<File> regions = getAllRegions(dir, null);
+		final int maxProgress = players.size()+regions.size()+2;
+		progress.incAtomic(maxProgress);
+
+		players.parallelStream().forEach((file) -> {
+			try {
+				stats.countFile(profile.containsReplaceableIDs(readUncompressed(file)));
+			}
+			catch (IOException e) {
+				LOGGER.warning("Failed reading Player-Data in {} ({})", file.getName(), e.getMessage());
+			}
+			progress.incAtomic(maxProgress);
+		});
+
+		try {
+			stats.countFile(profile.isLevelDatChanged() || profile.containsReplaceableIDs(readUncompressed(profile.getLevelDatFile())));
+		}
+		catch (IOException e) {
+			LOGGER.warning("Failed reading level.dat ({})", e.getMessage());
+		}
+		progress.incAtomic(maxProgress);
+
+		new RegionFixPipeline(profile, state, null, stats, progress, maxProgress).run(regions);
+		stats.finish();
+
+		LOGGER.info("Dry run finished: " + stats.getSummary());
+		LOGGER.info("{} of {} player and level files need changes, applying the patches will take about {}s", stats.getFilesChanged(), stats.getFilesScanned(), Math.round(stats.getProjectedSeconds()));
+		stats.exportJson(new File(dir, "bclib_migration_report.json"));
+		progress.incAtomic(maxProgress);
+		progress.stop();
+
+		//nothing was changed, so read errors are only reported in the log
+		if (state.hasError()) {
+			LOGGER.warning("There were Errors while testing the Level:");
+			LOGGER.warning(state.getErrorMessage());
+		}
+		return new State();
+	}
+
+	private static byte[] readUncompressed(File file) throws IOException {
+		try (InputStream input = new GZIPInputStream(new FileInputStream(file))) {
+			return input.readAllBytes();
+		}
+		catch (ZipException | EOFException e) {
+			return Files.readAllBytes(file.toPath());
+		}
+	}
 	
 	private static void fixLevel(MigrationProfile profile, State state, File levelBaseDir) {
 		try {
@@ -457,75 +601,140 @@ public class DataFixerAPI {
 		return _changed;
 	}
 
-	private static void fixRegion(MigrationProfile data, State state, File file) {
+	/**
+	 * Patches the uncompressed data of a single chunk. Called from the worker threads of {@link RegionFixPipeline}.
+	 * @param data The {@link MigrationProfile} to apply
+	 * @param state The {@link State} that collects errors
+	 * @param pos Position of the chunk in its region (used for error messages)
+	 * @param chunkData uncompressed binary NBT data of the chunk
+	 * @param streamPatcher {@link ChunkStreamPatcher} owned by the calling thread
+	 * @return The patched chunk data or {@code null} if nothing changed
+	 * @throws IOException if the chunk data can not be read
+	 */
+	static byte[] fixChunk(MigrationProfile data, State state, ChunkPos pos, byte[] chunkData, ChunkStreamPatcher streamPatcher) throws IOException {
+		if (!data.mayNeedChunkFix(chunkData)) {
+			return null;
+		}
+		
+		//Without BlockState patchers only IDs are replaced, which does not need the full tag tree
+		if (!data.needsBlockStatePatch(chunkData)) {
+			ByteArrayOutputStream patched = new ByteArrayOutputStream(chunkData.length + 256);
+			DataInputStream chunkInput = new DataInputStream(new ByteArrayInputStream(chunkData));
+			if (streamPatcher.patch(chunkInput, new DataOutputStream(patched))) {
+				return patched.toByteArray();
+			}
+			return null;
+		}
+		
+		CompoundTag root = NbtIo.read(new DataInputStream(new ByteArrayInputStream(chunkData)));
+		// if ((root.toString().contains("betternether:chest") || root.toString().contains("bclib:chest"))) {
+		//   NbtIo.write(root, new File(file.toString() + "-" + x + "-" + z + ".nbt"));
+		// }
+
+		if (fixChunkTag(data, state, pos, root)) {
+			ByteArrayOutputStream patched = new ByteArrayOutputStream(chunkData.length + 256);
+			NbtIo.write(root, new DataOutputStream(patched));
+			return patched.toByteArray();
+		}
+		return null;
+	}
+	
+	/**
+	 * Patches a chunk in its tag tree form, this is the reference for {@link ChunkStreamPatcher}.
+	 * @param data The {@link MigrationProfile} to apply
+	 * @param state The {@link State} that collects errors
+	 * @param pos Position of the chunk in its region (used for error messages)
+	 * @param root The chunk tag, it is changed in place
+	 * @return {@code true} if anything changed
+	 */
+	static boolean fixChunkTag(MigrationProfile data, State state, ChunkPos pos, CompoundTag root) {
+		boolean[] changed = new boolean[1];
+
+		//Checking TileEntities
+		ListTag tileEntities = root.getCompound("Level")
+								   .getList("TileEntities", Tag.TAG_COMPOUND);
+		fixItemArrayWithID(tileEntities, changed, data, true);
+
+		//Checking Entities
+		ListTag entities = root.getList("Entities", Tag.TAG_COMPOUND);
+		fixItemArrayWithID(entities, changed, data, true);
+
+		//Checking BlockEntities (1.18 layout)
+		ListTag blockEntities = root.getList("block_entities", Tag.TAG_COMPOUND);
+		fixItemArrayWithID(blockEntities, changed, data, true);
+
+		//Checking Block Palette
+		ListTag sections = root.getCompound("Level")
+							   .getList("Sections", Tag.TAG_COMPOUND);
+		sections.forEach((tag) -> {
+			ListTag palette = ((CompoundTag) tag).getList("Palette", Tag.TAG_COMPOUND);
+			fixPalette(data, state, pos, palette, (CompoundTag) tag, "BlockStates", changed);
+		});
+
+		//Checking Block and Biome Palettes (1.18 layout), the packed data arrays stay untouched
+		ListTag newSections = root.getList("sections", Tag.TAG_COMPOUND);
+		newSections.forEach((tag) -> {
+			CompoundTag blockStates = ((CompoundTag) tag).getCompound("block_states");
+			ListTag palette = blockStates.getList("palette", Tag.TAG_COMPOUND);
+			fixPalette(data, state, pos, palette, blockStates, "data", changed);
+
+			CompoundTag biomes = ((CompoundTag) tag).getCompound("biomes");
+			changed[0] |= fixBiomePalette(biomes.getList("palette", Tag.TAG_STRING), data);
+		});
+
+		return changed[0];
+	}
+	
+	/**
+	 * Replaces the IDs in a block palette and runs the BlockState patchers.
+	 * @param container The compound that holds the packed states
+	 * @param statesKey Name of the packed states, they are stored as a {@link LongArrayTag}
+	 */
+	private static void fixPalette(MigrationProfile data, State state, ChunkPos pos, ListTag palette, CompoundTag container, String statesKey, boolean[] changed) {
+		palette.forEach((blockTag) -> {
+			CompoundTag blockTagCompound = ((CompoundTag) blockTag);
+			changed[0] |= data.replaceStringFromIDs(blockTagCompound, "Name");
+		});
+		
 		try {
-			Path path = file.toPath();
-			LOGGER.info("Inspecting " + path);
-			boolean[] changed = new boolean[1];
-			RegionFile region = new RegionFile(path, path.getParent(), true);
-			
-			for (int x = 0; x < 32; x++) {
-				for (int z = 0; z < 32; z++) {
-					ChunkPos pos = new ChunkPos(x, z);
-					changed[0] = false;
-					if (region.hasChunk(pos) && !state.didFail) {
-						DataInputStream input = region.getChunkDataInputStream(pos);
-						CompoundTag root = NbtIo.read(input);
-						// if ((root.toString().contains("betternether:chest") || root.toString().contains("bclib:chest"))) {
-						//   NbtIo.write(root, new File(file.toString() + "-" + x + "-" + z + ".nbt"));
-						// }
-						input.close();
-
-						//Checking TileEntities
-						ListTag tileEntities = root.getCompound("Level")
-												   .getList("TileEntities", Tag.TAG_COMPOUND);
-						fixItemArrayWithID(tileEntities, changed, data, true);
-
-						//Checking Entities
-						ListTag entities = root.getList("Entities", Tag.TAG_COMPOUND);
-						fixItemArrayWithID(entities, changed, data, true);
-
-						//Checking Block Palette
-						ListTag sections = root.getCompound("Level")
-											   .getList("Sections", Tag.TAG_COMPOUND);
-						sections.forEach((tag) -> {
-							ListTag palette = ((CompoundTag) tag).getList("Palette", Tag.TAG_COMPOUND);
-							palette.forEach((blockTag) -> {
-								CompoundTag blockTagCompound = ((CompoundTag) blockTag);
-								changed[0] |= data.replaceStringFromIDs(blockTagCompound, "Name");
-							});
-							
-							try {
-								changed[0] |= data.patchBlockState(palette, ((CompoundTag) tag).getList("BlockStates", Tag.TAG_LONG));
-							}
-							catch (PatchDidiFailException e) {
-								BCLib.LOGGER.error("Failed fixing BlockState in " + pos);
-								state.addError("Failed fixing BlockState in " + pos + " (" + e.getMessage() + ")");
-								state.didFail = true;
-								changed[0] = false;
-								e.printStackTrace();
-							}
-						});
-
-						if (changed[0]) {
-							LOGGER.warning("Writing '{}': {}/{}", file, x, z);
-							// NbtIo.write(root, new File(file.toString() + "-" + x + "-" + z + "-changed.nbt"));
-							DataOutputStream output = region.getChunkDataOutputStream(pos);
-							NbtIo.write(root, output);
-							output.close();
-						}
+			//patchers receive the packed states as a list of longs, changes are written back to the array
+			final ListTag states = new ListTag();
+			for (long value : container.getLongArray(statesKey)) {
+				states.add(LongTag.valueOf(value));
+			}
+			if (data.patchBlockState(palette, states)) {
+				changed[0] = true;
+				if (container.contains(statesKey) || !states.isEmpty()) {
+					final long[] packed = new long[states.size()];
+					for (int i = 0; i < packed.length; i++) {
+						packed[i] = ((NumericTag) states.get(i)).getAsLong();
 					}
+					container.putLongArray(statesKey, packed);
 				}
 			}
-			region.close();
 		}
-		catch (Exception e) {
-			BCLib.LOGGER.error("Failed fixing Region.");
-			state.addError("Failed fixing Region in " + file.getName() + " (" + e.getMessage() + ")");
+		catch (PatchDidiFailException e) {
+			BCLib.LOGGER.error("Failed fixing BlockState in " + pos);
+			state.addError("Failed fixing BlockState in " + pos + " (" + e.getMessage() + ")");
 			state.didFail = true;
+			changed[0] = false;
 			e.printStackTrace();
 		}
 	}
+
+	private static boolean fixBiomePalette(ListTag palette, MigrationProfile data) {
+		boolean changed = false;
+		for (int i = 0; i < palette.size(); i++) {
+			final String biome = palette.getString(i);
+			final String replace = data.replaceBiomeFromIDs(biome);
+			if (replace != null) {
+				LOGGER.warning("Replacing Biome '{}' with '{}'.", biome, replace);
+				palette.set(i, StringTag.valueOf(replace));
+				changed = true;
+			}
+		}
+		return changed;
+	}
 	
 	static CompoundTag patchConfTag = null;
 	static CompoundTag getPatchData(){
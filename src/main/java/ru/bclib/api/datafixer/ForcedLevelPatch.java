@@ -9,6 +9,7 @@ import ru.bclib.interfaces.PatchFunction;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -23,12 +24,20 @@ public abstract class ForcedLevelPatch extends Patch {
 	public final Map<String, String> getIDReplacements() {
 		return new HashMap<String, String>();
 	}
-	
+
+	@Override
+	public final Map<String, String> getBiomeIDReplacements() {
+		return new HashMap<String, String>();
+	}
+
 	@Override
 	public final PatchFunction<CompoundTag, Boolean> getWorldDataPatcher() { return null; }
 	
 	@Override
 	public final PatchBiFunction<ListTag, ListTag, Boolean> getBlockStatePatcher() { return null; }
+
+	@Override
+	public final Set<String> getBlockStatePatcherIDs() { return null; }
 	
 	@Override
 	public final List<String> getWorldDataIDPaths() {
@@ -0,0 +1,140 @@
+package ru.bclib.api.datafixer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Multi-pattern matcher (Aho-Corasick automaton) that checks if raw, uncompressed NBT data contains any of the
+ * given IDs as a string payload.
+ * <p>
+ * IDs are encoded the same way NBT stores strings (length prefix followed by modified UTF-8), so only complete
+ * string values are found: {@code "mod:chest"} will not match inside {@code "mod:chest_boat"}.
+ * The automaton is compiled into a dense transition table over the bytes that actually appear in the IDs,
+ * so scanning is one table lookup per input byte.
+ */
+class IDMatcher {
+	private final int[] byteClass = new int[256];
+	private final int classCount;
+	private final int[] transitions;
+	private final boolean[] accepting;
+
+	IDMatcher(Collection<String> ids) {
+		List<byte[]> patterns = new ArrayList<>(ids.size());
+		ids.forEach(id -> patterns.add(encode(id)));
+
+		//map every byte used in a pattern to its own class, all other bytes share class 0
+		int classes = 1;
+		for (byte[] pattern : patterns) {
+			for (byte b : pattern) {
+				if (byteClass[b & 0xFF] == 0) {
+					byteClass[b & 0xFF] = classes++;
+				}
+			}
+		}
+		classCount = classes;
+
+		//build the trie
+		List<int[]> trie = new ArrayList<>();
+		List<Boolean> output = new ArrayList<>();
+		trie.add(newState());
+		output.add(false);
+		for (byte[] pattern : patterns) {
+			int state = 0;
+			for (byte b : pattern) {
+				final int c = byteClass[b & 0xFF];
+				if (trie.get(state)[c] < 0) {
+					trie.get(state)[c] = trie.size();
+					trie.add(newState());
+					output.add(false);
+				}
+				state = trie.get(state)[c];
+			}
+			output.set(state, true);
+		}
+
+		//add failure links (breadth first) and turn the trie into a complete automaton
+		final int stateCount = trie.size();
+		final int[] fail = new int[stateCount];
+		transitions = new int[stateCount * classCount];
+		accepting = new boolean[stateCount];
+		Queue<Integer> queue = new ArrayDeque<>();
+
+		for (int c = 0; c < classCount; c++) {
+			int child = trie.get(0)[c];
+			if (child < 0) {
+				transitions[c] = 0;
+			}
+			else {
+				transitions[c] = child;
+				fail[child] = 0;
+				queue.add(child);
+			}
+		}
+		accepting[0] = output.get(0);
+
+		while (!queue.isEmpty()) {
+			final int state = queue.poll();
+			accepting[state] = output.get(state) || accepting[fail[state]];
+			for (int c = 0; c < classCount; c++) {
+				final int child = trie.get(state)[c];
+				if (child < 0) {
+					transitions[state * classCount + c] = transitions[fail[state] * classCount + c];
+				}
+				else {
+					transitions[state * classCount + c] = child;
+					fail[child] = transitions[fail[state] * classCount + c];
+					queue.add(child);
+				}
+			}
+		}
+	}
+
+	private int[] newState() {
+		int[] state = new int[classCount];
+		Arrays.fill(state, -1);
+		return state;
+	}
+
+	/**
+	 * Checks if any ID occurs in the data.
+	 * @param data uncompressed binary NBT data.
+	 * @param length number of bytes in {@code data} to scan.
+	 * @return {@code true} if at least one ID was found.
+	 */
+	boolean matches(byte[] data, int length) {
+		if (accepting.length == 1) {
+			return false;
+		}
+
+		int state = 0;
+		for (int i = 0; i < length; i++) {
+			state = transitions[state * classCount + byteClass[data[i] & 0xFF]];
+			if (accepting[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean matches(byte[] data) {
+		return matches(data, data.length);
+	}
+
+	private static byte[] encode(String id) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(id.length() + 2);
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeUTF(id);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Unable to encode ID " + id, e);
+		}
+		return bytes.toByteArray();
+	}
+}
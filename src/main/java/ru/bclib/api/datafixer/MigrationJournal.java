@@ -0,0 +1,169 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.Util;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import ru.bclib.BCLib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers which region files were already fixed by a {@link MigrationProfile}, so an interrupted migration can
+ * resume where it stopped.
+ * <p>
+ * For every finished region the journal stores the ID of the active patches and a fingerprint of the file
+ * (size, last modification time and a checksum of the region header, which contains the location and timestamp
+ * of every chunk). A region is only skipped if the patches and the fingerprint still match. The journal is stored
+ * in the {@code data} folder of the world and removed after a migration finished without errors.
+ */
+class MigrationJournal {
+	private static final String FILE_NAME = "bclib_migration_journal.nbt";
+	private static final int HEADER_SIZE = 8192;
+	private static final long SAVE_INTERVAL = 5000;
+
+	private final File levelBaseDir;
+	private final File journalFile;
+	private final String patchID;
+	private final CompoundTag regions;
+	private long lastSave;
+	private boolean dirty;
+
+	private MigrationJournal(File levelBaseDir, String patchID, CompoundTag regions) {
+		this.levelBaseDir = levelBaseDir;
+		this.journalFile = new File(new File(levelBaseDir, "data"), FILE_NAME);
+		this.patchID = patchID;
+		this.regions = regions;
+		this.lastSave = Util.getMillis();
+	}
+
+	/**
+	 * Loads the journal of a world.
+	 * @param levelBaseDir Folder of the world
+	 * @param profile The {@link MigrationProfile} that will be applied
+	 * @param forceFullScan When {@code true}, existing entries are ignored and every region is inspected again
+	 * @return The journal for this world, never {@code null}
+	 */
+	static MigrationJournal load(File levelBaseDir, MigrationProfile profile, boolean forceFullScan) {
+		MigrationJournal journal = new MigrationJournal(levelBaseDir, profile.patchID, new CompoundTag());
+		if (forceFullScan) {
+			DataFixerAPI.LOGGER.info("Full scan requested, ignoring migration journal");
+			return journal;
+		}
+
+		if (journal.journalFile.exists()) {
+			try {
+				CompoundTag root = NbtIo.readCompressed(journal.journalFile);
+				CompoundTag regions = root.getCompound("regions");
+				regions.getAllKeys().forEach(key -> journal.regions.put(key, regions.get(key)));
+				DataFixerAPI.LOGGER.info("Resuming migration, {} regions in journal", journal.regions.size());
+			}
+			catch (IOException e) {
+				BCLib.LOGGER.warning("Unable to read migration journal {}", journal.journalFile, e);
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * Checks if the region was already fixed with the current patches and did not change since.
+	 * @param region The region file
+	 * @return {@code true} if the region does not need to be inspected again
+	 */
+	synchronized boolean isDone(File region) {
+		final String key = getKey(region);
+		if (!regions.contains(key)) {
+			return false;
+		}
+
+		final CompoundTag entry = regions.getCompound(key);
+		if (!patchID.equals(entry.getString("patches"))) {
+			return false;
+		}
+
+		try {
+			return entry.getLong("size") == region.length()
+				&& entry.getLong("modified") == region.lastModified()
+				&& entry.getLong("checksum") == getHeaderChecksum(region);
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records that a region was fixed. Has to be called after the region file was closed.
+	 * @param region The region file
+	 */
+	synchronized void markDone(File region) {
+		CompoundTag entry = new CompoundTag();
+		entry.putString("patches", patchID);
+		try {
+			entry.putLong("checksum", getHeaderChecksum(region));
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to fingerprint region {}", region, e);
+			return;
+		}
+		entry.putLong("size", region.length());
+		entry.putLong("modified", region.lastModified());
+		regions.put(getKey(region), entry);
+		dirty = true;
+
+		if (Util.getMillis() - lastSave >= SAVE_INTERVAL) {
+			save();
+		}
+	}
+
+	/**
+	 * Writes the journal if it changed since the last save.
+	 */
+	synchronized void save() {
+		lastSave = Util.getMillis();
+		if (!dirty) {
+			return;
+		}
+
+		CompoundTag root = new CompoundTag();
+		root.put("regions", regions);
+		try {
+			journalFile.getParentFile().mkdirs();
+			File tempFile = new File(journalFile.getParentFile(), FILE_NAME + ".tmp");
+			NbtIo.writeCompressed(root, tempFile);
+			Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			dirty = false;
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to write migration journal {}", journalFile, e);
+		}
+	}
+
+	/**
+	 * Removes the journal after a migration finished.
+	 */
+	synchronized void delete() {
+		regions.getAllKeys().clear();
+		dirty = false;
+		if (journalFile.exists() && !journalFile.delete()) {
+			BCLib.LOGGER.warning("Unable to delete migration journal {}", journalFile);
+		}
+	}
+
+	private String getKey(File region) {
+		return levelBaseDir.toPath().relativize(region.toPath()).toString().replace(File.separatorChar, '/');
+	}
+
+	private static long getHeaderChecksum(File region) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(region, "r")) {
+			final byte[] header = new byte[(int) Math.min(HEADER_SIZE, file.length())];
+			file.readFully(header);
+			CRC32 crc = new CRC32();
+			crc.update(header);
+			return crc.getValue();
+		}
+	}
+}
@@ -14,8 +14,10 @@ import ru.bclib.util.ModUtil;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -25,10 +27,21 @@ import java.util.stream.Collectors;
 public class MigrationProfile {
 	final Set<String> mods;
 	final Map<String, String> idReplacements;
+	final Map<String, String> biomeReplacements;
 	final List<PatchFunction<CompoundTag, Boolean>> levelPatchers;
 	final List<PatchBiFunction<ListTag, ListTag, Boolean>> statePatchers;
 	final List<Patch> worldDataPatchers;
 	final Map<String, List<String>> worldDataIDPaths;
+	private final Map<String, List<String[]>> worldDataIDPathParts;
+	private final List<StatePatcher> compiledStatePatchers;
+	private final Map<String, int[]> statePatcherIndex;
+	private final BitSet unfilteredStatePatchers;
+	private final IDMatcher idMatcher;
+	private final IDMatcher statePatcherMatcher;
+	/**
+	 * Identifies the set of active patches, used by the {@link MigrationJournal}
+	 */
+	final String patchID;
 	
 	private final CompoundTag config;
 	private CompoundTag level;
@@ -46,10 +59,13 @@ public class MigrationProfile {
 													 .collect(Collectors.toSet()));
 		
 		HashMap<String, String> replacements = new HashMap<String, String>();
+		HashMap<String, String> biomeReplacements = new HashMap<String, String>();
 		List<PatchFunction<CompoundTag, Boolean>> levelPatches = new LinkedList<>();
 		List<Patch> worldDataPatches = new LinkedList<>();
 		List<PatchBiFunction<ListTag, ListTag, Boolean>> statePatches = new LinkedList<>();
+		List<StatePatcher> compiledStatePatches = new ArrayList<>();
 		HashMap<String, List<String>> worldDataIDPaths = new HashMap<>();
+		List<String> activePatches = new LinkedList<>();
 		for (String modID : mods) {
 
 			Patch.getALL()
@@ -61,12 +77,16 @@ public class MigrationProfile {
 
 					 if (applyAll || currentPatchLevel(modID) < patch.level || patch.alwaysApply) {
 						 replacements.putAll(patch.getIDReplacements());
+						 biomeReplacements.putAll(patch.getBiomeIDReplacements());
 						 if (patch.getLevelDatPatcher()!=null)
 							 levelPatches.add(patch.getLevelDatPatcher());
 						 if (patch.getWorldDataPatcher()!=null)
 							 worldDataPatches.add(patch);
-						 if (patch.getBlockStatePatcher()!=null)
+						 if (patch.getBlockStatePatcher()!=null) {
 							 statePatches.add(patch.getBlockStatePatcher());
+							 compiledStatePatches.add(new StatePatcher(patch.getBlockStatePatcher(), patch.getBlockStatePatcherIDs()));
+						 }
+						 activePatches.add(patch.toString());
 						 DataFixerAPI.LOGGER.info("Applying " + patch);
 					 }
 					 else {
@@ -76,10 +96,69 @@ public class MigrationProfile {
 		}
 
 		this.worldDataIDPaths = Collections.unmodifiableMap(worldDataIDPaths);
-		this.idReplacements = Collections.unmodifiableMap(replacements);
+		this.worldDataIDPathParts = worldDataIDPaths.entrySet()
+													.stream()
+													.collect(Collectors.toUnmodifiableMap(
+														Map.Entry::getKey,
+														e -> e.getValue().stream().map(path -> path.split("\\.")).toList()
+													));
+		this.idReplacements = compileReplacements(replacements);
+		this.biomeReplacements = compileReplacements(biomeReplacements);
 		this.levelPatchers = Collections.unmodifiableList(levelPatches);
 		this.worldDataPatchers = Collections.unmodifiableList(worldDataPatches);
 		this.statePatchers = Collections.unmodifiableList(statePatches);
+		this.compiledStatePatchers = List.copyOf(compiledStatePatches);
+
+		//index the BlockState patchers by the block IDs they are interested in
+		Map<String, BitSet> index = new HashMap<>();
+		this.unfilteredStatePatchers = new BitSet();
+		for (int i = 0; i < compiledStatePatchers.size(); i++) {
+			final Set<String> blockIDs = compiledStatePatchers.get(i).blockIDs;
+			if (blockIDs == null) {
+				unfilteredStatePatchers.set(i);
+			}
+			else {
+				for (String id : blockIDs) {
+					index.computeIfAbsent(id, k -> new BitSet()).set(i);
+				}
+			}
+		}
+		this.statePatcherIndex = index.entrySet()
+									  .stream()
+									  .collect(Collectors.toUnmodifiableMap(
+										  e -> e.getKey().intern(),
+										  e -> e.getValue().stream().toArray()
+									  ));
+
+		//chunks contain the IDs before replacement, so look for both
+		Set<String> stateIDs = new HashSet<>(statePatcherIndex.keySet());
+		this.idReplacements.forEach((from, to) -> {
+			if (statePatcherIndex.containsKey(to)) stateIDs.add(from);
+		});
+		this.statePatcherMatcher = new IDMatcher(stateIDs);
+
+		Set<String> matchedIDs = new HashSet<>(this.idReplacements.keySet());
+		matchedIDs.addAll(this.biomeReplacements.keySet());
+		matchedIDs.addAll(stateIDs);
+		this.idMatcher = new IDMatcher(matchedIDs);
+		Collections.sort(activePatches);
+		this.patchID = String.join(";", activePatches);
+	}
+	
+	/**
+	 * A BlockState patcher together with the block IDs it is interested in ({@code null} for all).
+	 */
+	private record StatePatcher(PatchBiFunction<ListTag, ListTag, Boolean> patcher, Set<String> blockIDs) {
+	}
+
+	/**
+	 * Creates an immutable copy of the replacements with interned IDs, so all patched tags share the same
+	 * String instances.
+	 */
+	private static Map<String, String> compileReplacements(Map<String, String> replacements) {
+		Map<String, String> interned = new HashMap<>(replacements.size() * 2);
+		replacements.forEach((from, to) -> interned.put(from.intern(), to.intern()));
+		return Map.copyOf(interned);
 	}
 	
 	/**
@@ -254,7 +333,38 @@ public class MigrationProfile {
 			hasLevelDatPatches = levelPatchers.size()>0;
 		}
 		
-		return idReplacements.size() > 0 || hasLevelDatPatches || worldDataPatchers.size() > 0;
+		return idReplacements.size() > 0 || biomeReplacements.size() > 0 || hasLevelDatPatches || worldDataPatchers.size() > 0;
+	}
+
+	/**
+	 * Fast check on the uncompressed binary NBT data of a chunk. Chunks that do not contain any of the IDs
+	 * from {@link #idReplacements} or {@link #biomeReplacements} as a string value (or any block ID a BlockState
+	 * patcher is interested in) do not need to be parsed, unless BlockState patchers without a list of block IDs
+	 * are active (they need to inspect every chunk).
+	 * @param data uncompressed binary NBT data of the chunk.
+	 * @return {@code true} if the chunk needs to be parsed and patched.
+	 */
+	public boolean mayNeedChunkFix(byte[] data) {
+		return !unfilteredStatePatchers.isEmpty() || idMatcher.matches(data);
+	}
+
+	/**
+	 * Checks if uncompressed binary NBT data contains any ID that may be replaced.
+	 * @param data uncompressed binary NBT data.
+	 * @return {@code true} if a replaceable ID was found.
+	 */
+	boolean containsReplaceableIDs(byte[] data) {
+		return idMatcher.matches(data);
+	}
+
+	/**
+	 * Checks if any BlockState patcher needs to see the palettes of a chunk. If not, the chunk can be patched without
+	 * building the full tag tree.
+	 * @param data uncompressed binary NBT data of the chunk.
+	 * @return {@code true} if BlockState patchers have to run on the chunk.
+	 */
+	boolean needsBlockStatePatch(byte[] data) {
+		return !unfilteredStatePatchers.isEmpty() || statePatcherMatcher.matches(data);
 	}
 
 	public String replaceStringFromIDs(@NotNull String val) {
@@ -262,6 +372,15 @@ public class MigrationProfile {
 		return replace;
 	}
 	
+	/**
+	 * Looks up the replacement for a biome ID.
+	 * @param val The biome ID found in a biome palette
+	 * @return The new biome ID or {@code null} if the ID is not replaced
+	 */
+	public String replaceBiomeFromIDs(@NotNull String val) {
+		return biomeReplacements.get(val);
+	}
+	
 	public boolean replaceStringFromIDs(@NotNull CompoundTag tag, @NotNull String key) {
 		if (!tag.contains(key)) return false;
 
@@ -352,11 +471,11 @@ public class MigrationProfile {
 			}
 		}
 
-		for (Map.Entry<String, List<String>> entry : worldDataIDPaths.entrySet()){
+		for (Map.Entry<String, List<String[]>> entry : worldDataIDPathParts.entrySet()){
 			CompoundTag root = WorldDataAPI.getRootTag(entry.getKey());
 			boolean[] changed = {false};
-			entry.getValue().forEach(path -> {
-				changed[0] |= replaceIDatPath(root, path);
+			entry.getValue().forEach(parts -> {
+				changed[0] |= replaceIDatPath(root, parts, 0);
 			});
 
 			if (changed[0]){
@@ -366,9 +485,24 @@ public class MigrationProfile {
 	}
 	
 	public boolean patchBlockState(ListTag palette, ListTag states) throws PatchDidiFailException{
+		if (compiledStatePatchers.isEmpty()) {
+			return false;
+		}
+
+		//select the patchers that are interested in this palette, keeping their registration order
+		final BitSet active = (BitSet) unfilteredStatePatchers.clone();
+		if (!statePatcherIndex.isEmpty()) {
+			for (int i = 0; i < palette.size(); i++) {
+				final int[] patchers = statePatcherIndex.get(palette.getCompound(i).getString("Name"));
+				if (patchers != null) {
+					for (int idx : patchers) active.set(idx);
+				}
+			}
+		}
+
 		boolean changed = false;
-		for (PatchBiFunction<ListTag, ListTag, Boolean> f : statePatchers) {
-			changed |= f.apply(palette, states, this);
+		for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) {
+			changed |= compiledStatePatchers.get(i).patcher.apply(palette, states, this);
 		}
 		return changed;
 	}
@@ -0,0 +1,163 @@
+package ru.bclib.api.datafixer;
+
+import com.google.gson.JsonObject;
+import net.minecraft.Util;
+import ru.bclib.util.JsonFactory;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics while a {@link MigrationProfile} is applied to (or, in a dry run, tested against) a world.
+ * All counters can be updated from any thread.
+ */
+public class MigrationStats {
+	public final boolean dryRun;
+	private final long startTime = Util.getMillis();
+	private volatile long endTime = -1;
+
+	private final AtomicLong regions = new AtomicLong();
+	private final AtomicLong chunksScanned = new AtomicLong();
+	private final AtomicLong chunksChanged = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesChanged = new AtomicLong();
+	private final AtomicLong filesScanned = new AtomicLong();
+	private final AtomicLong filesChanged = new AtomicLong();
+	private final Map<String, LongAdder> idHits = new ConcurrentHashMap<>();
+
+	MigrationStats(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	void countRegion() {
+		regions.incrementAndGet();
+	}
+
+	void countChunk(int size, boolean changed) {
+		chunksScanned.incrementAndGet();
+		bytesRead.addAndGet(size);
+		if (changed) {
+			chunksChanged.incrementAndGet();
+			bytesChanged.addAndGet(size);
+		}
+	}
+
+	void countFile(boolean changed) {
+		filesScanned.incrementAndGet();
+		if (changed) {
+			filesChanged.incrementAndGet();
+		}
+	}
+
+	void countID(String id) {
+		idHits.computeIfAbsent(id, k -> new LongAdder()).increment();
+	}
+
+	void finish() {
+		endTime = Util.getMillis();
+	}
+
+	public long getChunksScanned() {
+		return chunksScanned.get();
+	}
+
+	public long getChunksChanged() {
+		return chunksChanged.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getFilesScanned() {
+		return filesScanned.get();
+	}
+
+	public long getFilesChanged() {
+		return filesChanged.get();
+	}
+
+	/**
+	 * @return The time since the run was started (or the duration of a finished run) in seconds
+	 */
+	public double getSeconds() {
+		final long end = endTime < 0 ? Util.getMillis() : endTime;
+		return Math.max(1, end - startTime) / 1000.0;
+	}
+
+	public double getChunksPerSecond() {
+		return chunksScanned.get() / getSeconds();
+	}
+
+	public double getMegabytesPerSecond() {
+		return bytesRead.get() / getSeconds() / (1024 * 1024);
+	}
+
+	/**
+	 * Estimates how long applying the patches will take, based on the measured throughput of a dry run. A real run
+	 * reads every chunk just like the dry run, and additionally rewrites, compresses and stores every changed chunk,
+	 * which is assumed to cost about as much again as reading it.
+	 * @return The estimated wall time in seconds
+	 */
+	public double getProjectedSeconds() {
+		final long read = bytesRead.get();
+		if (read == 0) {
+			return getSeconds();
+		}
+		return getSeconds() * (1 + bytesChanged.get() / (double) read);
+	}
+
+	/**
+	 * @return A short, human readable summary of the statistics
+	 */
+	public String getSummary() {
+		return String.format(
+			Locale.ROOT,
+			"%d chunks in %d regions, %d need changes, %.1f MB read (%.1f chunks/s, %.1f MB/s)",
+			chunksScanned.get(),
+			regions.get(),
+			chunksChanged.get(),
+			bytesRead.get() / (1024.0 * 1024.0),
+			getChunksPerSecond(),
+			getMegabytesPerSecond()
+		);
+	}
+
+	public JsonObject toJson() {
+		JsonObject root = new JsonObject();
+		root.addProperty("dryRun", dryRun);
+		root.addProperty("seconds", getSeconds());
+		root.addProperty("regions", regions.get());
+		root.addProperty("chunksScanned", chunksScanned.get());
+		root.addProperty("chunksChanged", chunksChanged.get());
+		root.addProperty("bytesRead", bytesRead.get());
+		root.addProperty("filesScanned", filesScanned.get());
+		root.addProperty("filesChanged", filesChanged.get());
+		root.addProperty("chunksPerSecond", getChunksPerSecond());
+		root.addProperty("megabytesPerSecond", getMegabytesPerSecond());
+		if (dryRun) {
+			root.addProperty("projectedSeconds", getProjectedSeconds());
+		}
+
+		JsonObject ids = new JsonObject();
+		idHits.entrySet()
+			  .stream()
+			  .sorted(Comparator.comparing((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+			  .forEach(e -> ids.addProperty(e.getKey(), e.getValue().sum()));
+		root.add("idHits", ids);
+		return root;
+	}
+
+	/**
+	 * Writes the statistics as JSON.
+	 * @param file The target file
+	 */
+	public void exportJson(File file) {
+		JsonFactory.storeJson(file, toJson());
+	}
+}
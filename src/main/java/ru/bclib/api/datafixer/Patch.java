@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class Patch {
 	private static final List<Patch> ALL = new ArrayList<>(10);
@@ -128,6 +129,19 @@ public abstract class Patch {
 	public Map<String, String> getIDReplacements() {
 		return new HashMap<String, String>();
 	}
+
+	/**
+	 * Return biome ID fixes. Fixes will be applied to the biome palettes of every chunk section on world load if
+	 * current patch-level for the linked mod is lower than the {@link #level}.
+	 * <p>
+	 * The default implementation of this method returns an empty map.
+	 *
+	 * @return The returned Map should contain the replacements. All occurences of the
+	 * {@code KeySet} are replaced with the associated value.
+	 */
+	public Map<String, String> getBiomeIDReplacements() {
+		return new HashMap<String, String>();
+	}
 	
 	/**
 	 * Return a {@link PatchFunction} that is called with the content of <i>level.dat</i>.
@@ -158,7 +172,9 @@ public abstract class Patch {
 	 * each chunk in every region. This method is called AFTER all ID replacements
 	 * from {@link #getIDReplacements()} were applied to the pallete.
 	 *
-	 * The first parameter is the palette and the second is the blockstate.
+	 * The first parameter is the palette and the second is the blockstate. The blockstate contains the packed
+	 * block states of the section (stored in a {@code LongArrayTag} in the chunk) as a list of {@code LongTag}s,
+	 * if the function returns {@code true}, the content of the list is written back to the chunk.
 	 *
 	 * The function needs to return {@code true}, if changes were made to the data.
 	 * If an error occurs, the method should throw a {@link PatchDidiFailException}
@@ -168,6 +184,17 @@ public abstract class Patch {
 	 * @return {@code true} if changes were applied and we need to save the data
 	 */
 	public PatchBiFunction<ListTag, ListTag, Boolean> getBlockStatePatcher() { return null; }
+
+	/**
+	 * Return the block IDs the {@link #getBlockStatePatcher()} is interested in. The patcher is only called
+	 * for palettes that contain at least one of those IDs (after the replacements from {@link #getIDReplacements()}
+	 * were applied), and chunks without any of them are not parsed at all.
+	 *
+	 * The default implementation of this method returns null, which means the patcher is called for every palette.
+	 *
+	 * @return A Set of block IDs or {@code null}
+	 */
+	public Set<String> getBlockStatePatcherIDs() { return null; }
 	
 	/**
 	 * Generates ready to use data for all currently registered patches. The list of
@@ -0,0 +1,143 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads chunks from a region file without ever writing to it.
+ * <p>
+ * Opening a {@link net.minecraft.world.level.chunk.storage.RegionFile} may pad the file or rewrite its header, so
+ * it can not be used to inspect a world that must not change (for a dry run, or for regions that are hard linked
+ * into a {@link WorldSnapshot}). This reader only parses the offset table and the chunk sectors, using the same
+ * format as vanilla.
+ */
+class RegionFileReader implements AutoCloseable {
+	private static final int SECTOR_SIZE = 4096;
+	private static final int EXTERNAL_FLAG = 128;
+	private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+	private final Path path;
+	private final FileChannel channel;
+	private final IntBuffer offsets;
+
+	/**
+	 * Opens the region file for reading.
+	 * @param path The region file
+	 * @throws IOException if the file can not be opened
+	 */
+	RegionFileReader(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		//a file without a complete header contains no chunks
+		final ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE);
+		try {
+			if (channel.size() >= SECTOR_SIZE) {
+				readFully(header, 0);
+			}
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.offsets = header.rewind().asIntBuffer();
+	}
+
+	boolean hasChunk(ChunkPos pos) {
+		return getOffset(pos) != 0;
+	}
+
+	/**
+	 * Reads the uncompressed NBT data of a chunk.
+	 * @param pos Position of the chunk in this region
+	 * @return The data or {@code null} if the chunk does not exist
+	 * @throws IOException if the chunk is corrupted or can not be read
+	 */
+	byte[] readChunk(ChunkPos pos) throws IOException {
+		final int offset = getOffset(pos);
+		if (offset == 0) {
+			return null;
+		}
+		final long sector = offset >>> 8;
+		final int sectorCount = offset & 0xFF;
+		if (sector < 2) {
+			throw new IOException("Invalid sector " + sector + " for chunk " + pos);
+		}
+
+		final ByteBuffer chunkHeader = ByteBuffer.allocate(5);
+		readFully(chunkHeader, sector * SECTOR_SIZE);
+		chunkHeader.flip();
+		final int length = chunkHeader.getInt();
+		final byte type = chunkHeader.get();
+		if (length <= 0 || (long) length + 4 > (long) sectorCount * SECTOR_SIZE) {
+			throw new IOException("Invalid length " + length + " for chunk " + pos);
+		}
+
+		final byte[] data;
+		if ((type & EXTERNAL_FLAG) != 0) {
+			data = Files.readAllBytes(getExternalChunkPath(pos));
+		}
+		else {
+			final ByteBuffer buffer = ByteBuffer.allocate(length - 1);
+			readFully(buffer, sector * SECTOR_SIZE + 5);
+			data = buffer.array();
+		}
+
+		try (InputStream input = decompress(type & ~EXTERNAL_FLAG, new ByteArrayInputStream(data), pos)) {
+			return input.readAllBytes();
+		}
+	}
+
+	private static InputStream decompress(int type, InputStream input, ChunkPos pos) throws IOException {
+		return switch (type) {
+			case 1 -> new GZIPInputStream(input);
+			case 2 -> new InflaterInputStream(input);
+			case 3 -> input;
+			default -> throw new IOException("Unknown compression " + type + " for chunk " + pos);
+		};
+	}
+
+	/**
+	 * Vanilla names oversized chunks after their absolute position, which is derived from the region name.
+	 */
+	private Path getExternalChunkPath(ChunkPos pos) {
+		int x = pos.x;
+		int z = pos.z;
+		final Matcher matcher = REGION_NAME.matcher(path.getFileName().toString());
+		if (matcher.matches()) {
+			x = Integer.parseInt(matcher.group(1)) * 32 + (pos.x & 31);
+			z = Integer.parseInt(matcher.group(2)) * 32 + (pos.z & 31);
+		}
+		return path.resolveSibling("c." + x + "." + z + ".mcc");
+	}
+
+	private int getOffset(ChunkPos pos) {
+		return offsets.get((pos.x & 31) + (pos.z & 31) * 32);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of region file " + path);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
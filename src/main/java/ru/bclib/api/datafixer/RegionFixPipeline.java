@@ -0,0 +1,335 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.Util;
+import net.minecraft.network.chat.TranslatableComponent;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import ru.bclib.BCLib;
+import ru.bclib.api.datafixer.DataFixerAPI.State;
+import ru.bclib.gui.screens.AtomicProgressListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixes all chunks in a list of region files using three stages:
+ * <ul>
+ *     <li>a small pool of reader threads opens the regions and decompresses the chunks,</li>
+ *     <li>a CPU pool patches the chunk data (see {@link DataFixerAPI#fixChunk}),</li>
+ *     <li>a single writer thread stores changed chunks back into their {@link RegionFile}.</li>
+ * </ul>
+ * During a dry run, regions are only read through a {@link RegionFileReader}, so no file is changed.
+ * The number of chunks that were read but not yet finished is limited, readers will wait if the
+ * other stages fall behind. Errors from all stages are collected in the shared {@link State}.
+ */
+class RegionFixPipeline {
+	private static final int MAX_CHUNKS_IN_FLIGHT = 256;
+	private static final int IO_THREADS = 2;
+
+	private final MigrationProfile profile;
+	private final State state;
+	private final MigrationJournal journal;
+	private final MigrationStats stats;
+	private final AtomicProgressListener progress;
+	private final int maxProgress;
+
+	private final Semaphore inFlight = new Semaphore(MAX_CHUNKS_IN_FLIGHT);
+	private final ThreadLocal<ChunkStreamPatcher> patchers;
+	private final AtomicLong lastReport = new AtomicLong();
+
+	private ExecutorService workers;
+	private ExecutorService writer;
+
+	/**
+	 * @param profile The {@link MigrationProfile} to apply
+	 * @param state Collects errors
+	 * @param journal Records finished regions, may be {@code null}
+	 * @param stats Collects statistics. If this is a dry run, no chunk is written
+	 * @param progress Receives progress updates
+	 * @param maxProgress The total number of progress steps
+	 */
+	RegionFixPipeline(MigrationProfile profile, State state, MigrationJournal journal, MigrationStats stats, AtomicProgressListener progress, int maxProgress) {
+		this.profile = profile;
+		this.state = state;
+		this.journal = journal;
+		this.stats = stats;
+		this.progress = progress;
+		this.maxProgress = maxProgress;
+		this.patchers = ThreadLocal.withInitial(() -> new ChunkStreamPatcher(profile, stats, !stats.dryRun));
+	}
+
+	/**
+	 * Processes all regions and returns when every chunk was written and every region was closed.
+	 * @param regions List of region files to fix.
+	 */
+	void run(List<File> regions) {
+		if (regions.isEmpty()) {
+			return;
+		}
+
+		lastReport.set(Util.getMillis());
+
+		final int cpuThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		ExecutorService readers = Executors.newFixedThreadPool(Math.min(IO_THREADS, regions.size()), threadFactory("Reader"));
+		workers = Executors.newFixedThreadPool(cpuThreads, threadFactory("Worker"));
+		writer = Executors.newSingleThreadExecutor(threadFactory("Writer"));
+
+		regions.forEach(file -> readers.execute(() -> readRegion(file)));
+
+		try {
+			//readers finish first, afterwards no new work is submitted to the later stages
+			awaitShutdown(readers);
+			awaitShutdown(workers);
+			awaitShutdown(writer);
+		}
+		catch (InterruptedException e) {
+			readers.shutdownNow();
+			workers.shutdownNow();
+			writer.shutdownNow();
+			fail("Region fixing was interrupted", e);
+			Thread.currentThread().interrupt();
+		}
+
+		DataFixerAPI.LOGGER.info("Inspected " + stats.getSummary());
+	}
+
+	private void readRegion(File file) {
+		RegionJob job = null;
+		try {
+			if (journal != null && journal.isDone(file)) {
+				DataFixerAPI.LOGGER.info("Skipping " + file.toPath() + " (already fixed)");
+				progress.incAtomic(maxProgress);
+				return;
+			}
+
+			Path path = file.toPath();
+			DataFixerAPI.LOGGER.info("Inspecting " + path);
+			job = stats.dryRun
+				? new RegionJob(file, null, new RegionFileReader(path))
+				: new RegionJob(file, new RegionFile(path, path.getParent(), true), null);
+			stats.countRegion();
+
+			for (int x = 0; x < 32; x++) {
+				for (int z = 0; z < 32; z++) {
+					if (state.didFail) {
+						return;
+					}
+
+					ChunkPos pos = new ChunkPos(x, z);
+					byte[] chunkData = job.readChunk(pos);
+					if (chunkData == null) {
+						continue;
+					}
+
+					inFlight.acquire();
+					job.pending.incrementAndGet();
+					final RegionJob chunkJob = job;
+					workers.execute(() -> patchChunk(chunkJob, pos, chunkData));
+				}
+			}
+		}
+		catch (Exception e) {
+			if (job != null) {
+				job.failed = true;
+			}
+			fail("Failed fixing Region in " + file.getName(), e);
+		}
+		finally {
+			if (job != null) {
+				job.release();
+			}
+			else {
+				progress.incAtomic(maxProgress);
+			}
+		}
+	}
+
+	private void patchChunk(RegionJob job, ChunkPos pos, byte[] chunkData) {
+		boolean handedToWriter = false;
+		try {
+			final byte[] patched;
+			if (state.didFail) {
+				patched = null;
+			}
+			else if (stats.dryRun) {
+				stats.countChunk(chunkData.length, scanChunk(chunkData));
+				patched = null;
+			}
+			else {
+				patched = DataFixerAPI.fixChunk(profile, state, pos, chunkData, patchers.get());
+				stats.countChunk(chunkData.length, patched != null);
+			}
+
+			if (patched != null) {
+				writer.execute(() -> writeChunk(job, pos, patched));
+				handedToWriter = true;
+			}
+		}
+		catch (Exception e) {
+			job.failed = true;
+			fail("Failed fixing Chunk " + pos + " in " + job.file.getName(), e);
+		}
+		finally {
+			if (!handedToWriter) {
+				finishChunk(job);
+			}
+		}
+	}
+
+	/**
+	 * Checks a chunk during a dry run, the patched data is discarded.
+	 */
+	private boolean scanChunk(byte[] chunkData) throws IOException {
+		if (!profile.mayNeedChunkFix(chunkData)) {
+			return false;
+		}
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(chunkData));
+		final boolean changed = patchers.get().patch(input, new DataOutputStream(OutputStream.nullOutputStream()));
+		return changed || profile.needsBlockStatePatch(chunkData);
+	}
+
+	private void writeChunk(RegionJob job, ChunkPos pos, byte[] patched) {
+		try {
+			if (!state.didFail) {
+				DataFixerAPI.LOGGER.warning("Writing '{}': {}/{}", job.file, pos.x, pos.z);
+				synchronized (job.region) {
+					DataOutputStream output = job.region.getChunkDataOutputStream(pos);
+					output.write(patched);
+					output.close();
+				}
+			}
+		}
+		catch (Exception e) {
+			job.failed = true;
+			fail("Failed writing Chunk " + pos + " in " + job.file.getName(), e);
+		}
+		finally {
+			finishChunk(job);
+		}
+	}
+
+	private void finishChunk(RegionJob job) {
+		inFlight.release();
+		job.release();
+		reportSpeed();
+	}
+
+	private void reportSpeed() {
+		final long now = Util.getMillis();
+		final long last = lastReport.get();
+		if (now - last < 1000 || !lastReport.compareAndSet(last, now)) {
+			return;
+		}
+
+		progress.progressStage(new TranslatableComponent(
+			stats.dryRun ? "message.bclib.datafixer.progress.regions.scan" : "message.bclib.datafixer.progress.regions.speed",
+			format(stats.getChunksPerSecond()),
+			format(stats.getMegabytesPerSecond())
+		));
+	}
+
+	private void fail(String message, Exception e) {
+		BCLib.LOGGER.error(message);
+		state.addError(message + " (" + e.getMessage() + ")");
+		state.didFail = true;
+		e.printStackTrace();
+	}
+
+	private void awaitShutdown(ExecutorService service) throws InterruptedException {
+		service.shutdown();
+		while (!service.awaitTermination(1, TimeUnit.MINUTES)) {
+			DataFixerAPI.LOGGER.info("Still waiting for region fixes to finish...");
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static ThreadFactory threadFactory(String stage) {
+		final AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "BCLib DataFixer " + stage + " #" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * A region that is currently processed. The reader holds one reference until all chunks were submitted,
+	 * every chunk holds one until it is written (or skipped). The region is closed when the last one is released
+	 * and recorded in the {@link MigrationJournal} if all of its chunks were handled.
+	 */
+	private class RegionJob {
+		final File file;
+		//exactly one of region (to fix chunks) and reader (for a dry run) is set
+		final RegionFile region;
+		final RegionFileReader reader;
+		final AtomicInteger pending = new AtomicInteger(1);
+		volatile boolean failed;
+
+		RegionJob(File file, RegionFile region, RegionFileReader reader) {
+			this.file = file;
+			this.region = region;
+			this.reader = reader;
+		}
+
+		/**
+		 * @return The uncompressed chunk data or {@code null} if the chunk does not exist
+		 */
+		byte[] readChunk(ChunkPos pos) throws IOException {
+			if (reader != null) {
+				return reader.readChunk(pos);
+			}
+			synchronized (region) {
+				if (!region.hasChunk(pos)) {
+					return null;
+				}
+				try (DataInputStream input = region.getChunkDataInputStream(pos)) {
+					if (input == null) {
+						throw new IOException("Unable to read chunk " + pos);
+					}
+					return input.readAllBytes();
+				}
+			}
+		}
+
+		void release() {
+			if (pending.decrementAndGet() != 0) {
+				return;
+			}
+
+			try {
+				if (reader != null) {
+					reader.close();
+				}
+				else {
+					synchronized (region) {
+						region.close();
+					}
+				}
+				if (journal != null && !failed && !state.didFail) {
+					journal.markDone(file);
+				}
+			}
+			catch (IOException e) {
+				fail("Failed closing Region " + file.getName(), e);
+			}
+			progress.incAtomic(maxProgress);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.Util;
+import ru.bclib.BCLib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A cheap backup of a world that is taken before patches are applied.
+ * <p>
+ * Region files the migration will not modify are hard linked into the snapshot, so they take no additional
+ * disk space. All other files are copied, using a reflink clone where the filesystem supports it. Hard linked
+ * regions share their content with the world, so a snapshot only protects against changes made by the
+ * migration. It should be restored (see {@link #restore()}) or removed (see {@link #delete()}) before the
+ * world is played again.
+ * <p>
+ * Snapshots are stored next to the world in a folder named {@code <world>_bclib_snapshots}.
+ */
+public class WorldSnapshot {
+	private static final String FOLDER_SUFFIX = "_bclib_snapshots";
+	private static volatile boolean reflinkUnsupported = false;
+
+	/**
+	 * The folder of the world this snapshot was taken from
+	 */
+	public final File levelBaseDir;
+
+	/**
+	 * The folder that contains the snapshot
+	 */
+	public final File snapshotDir;
+
+	private WorldSnapshot(File levelBaseDir, File snapshotDir) {
+		this.levelBaseDir = levelBaseDir;
+		this.snapshotDir = snapshotDir;
+	}
+
+	/**
+	 * Creates a new snapshot of a world.
+	 * @param levelBaseDir Folder of the world
+	 * @param mayChange Returns {@code true} for region files the migration may modify, those are copied instead
+	 *                  of linked
+	 * @return The new snapshot
+	 * @throws IOException if the snapshot could not be created, the incomplete snapshot is deleted in that case
+	 */
+	static WorldSnapshot create(File levelBaseDir, Predicate<File> mayChange) throws IOException {
+		final String name = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+		final Path source = levelBaseDir.toPath();
+		final Path target = getSnapshotFolder(levelBaseDir).toPath().resolve(name);
+		final int[] counts = {0, 0, 0};
+		final long startTime = Util.getMillis();
+
+		DataFixerAPI.LOGGER.info("Creating snapshot of {} in {}", source, target);
+		try {
+			copyTree(source, target, mayChange, counts);
+		}
+		catch (IOException | RuntimeException e) {
+			try {
+				deleteRecursive(target);
+			}
+			catch (IOException deleteError) {
+				e.addSuppressed(deleteError);
+			}
+			throw e;
+		}
+
+		DataFixerAPI.LOGGER.info(
+			"Snapshot finished in {}ms ({} files linked, {} cloned, {} copied)",
+			Util.getMillis() - startTime,
+			counts[0],
+			counts[1],
+			counts[2]
+		);
+		return new WorldSnapshot(levelBaseDir, target.toFile());
+	}
+
+	private static void copyTree(Path source, Path target, Predicate<File> mayChange, int[] counts) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				final String fileName = file.getFileName().toString();
+				if (fileName.equals("session.lock")) {
+					return FileVisitResult.CONTINUE;
+				}
+
+				final Path copy = target.resolve(source.relativize(file));
+				//region files are changed in place, everything else can be rewritten by the patches
+				if (fileName.endsWith(".mca") && !mayChange.test(file.toFile()) && link(file, copy)) {
+					counts[0]++;
+				}
+				else if (reflink(file, copy)) {
+					counts[1]++;
+				}
+				else {
+					Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+					counts[2]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Lists all snapshots that exist for a world, the newest one first.
+	 * @param levelBaseDir Folder of the world
+	 * @return A list of snapshots, may be empty
+	 */
+	public static List<WorldSnapshot> getSnapshots(File levelBaseDir) {
+		List<WorldSnapshot> list = new ArrayList<>();
+		File[] folders = getSnapshotFolder(levelBaseDir).listFiles(File::isDirectory);
+		if (folders != null) {
+			Arrays.sort(folders, Comparator.comparing(File::getName).reversed());
+			for (File folder : folders) {
+				list.add(new WorldSnapshot(levelBaseDir, folder));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Replaces the world with the content of this snapshot. The snapshot is consumed by this operation. The world
+	 * must not be loaded while it is restored.
+	 * @throws IOException if the world could not be replaced
+	 */
+	public void restore() throws IOException {
+		final Path world = levelBaseDir.toPath();
+		final Path discarded = world.resolveSibling(levelBaseDir.getName() + "_bclib_discarded");
+		BCLib.LOGGER.info("Restoring {} from snapshot {}", world, snapshotDir);
+
+		deleteRecursive(discarded);
+		Files.move(world, discarded, StandardCopyOption.ATOMIC_MOVE);
+		try {
+			Files.move(snapshotDir.toPath(), world, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			Files.move(discarded, world, StandardCopyOption.ATOMIC_MOVE);
+			throw e;
+		}
+		deleteRecursive(discarded);
+		removeEmptySnapshotFolder();
+	}
+
+	/**
+	 * Removes this snapshot from disk.
+	 * @throws IOException if the snapshot could not be deleted
+	 */
+	public void delete() throws IOException {
+		BCLib.LOGGER.info("Removing snapshot {}", snapshotDir);
+		deleteRecursive(snapshotDir.toPath());
+		removeEmptySnapshotFolder();
+	}
+
+	/**
+	 * Removes all snapshots of a world.
+	 * @param levelBaseDir Folder of the world
+	 * @throws IOException if a snapshot could not be deleted
+	 */
+	public static void deleteAll(File levelBaseDir) throws IOException {
+		for (WorldSnapshot snapshot : getSnapshots(levelBaseDir)) {
+			snapshot.delete();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WorldSnapshot{" + snapshotDir + '}';
+	}
+
+	private void removeEmptySnapshotFolder() {
+		File folder = getSnapshotFolder(levelBaseDir);
+		String[] content = folder.list();
+		if (content != null && content.length == 0) {
+			folder.delete();
+		}
+	}
+
+	private static File getSnapshotFolder(File levelBaseDir) {
+		return new File(levelBaseDir.getAbsoluteFile().getParentFile(), levelBaseDir.getName() + FOLDER_SUFFIX);
+	}
+
+	private static boolean link(Path file, Path copy) {
+		try {
+			Files.createLink(copy, file);
+			return true;
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	private static boolean reflink(Path file, Path copy) {
+		if (reflinkUnsupported) {
+			return false;
+		}
+
+		final String[] command = switch (Util.getPlatform()) {
+			case LINUX -> new String[] {"cp", "--reflink=always", "--preserve=timestamps", file.toString(), copy.toString()};
+			case OSX -> new String[] {"cp", "-c", "-p", file.toString(), copy.toString()};
+			default -> null;
+		};
+		if (command == null) {
+			reflinkUnsupported = true;
+			return false;
+		}
+
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			process.getInputStream().readAllBytes();
+			if (process.waitFor(1, TimeUnit.MINUTES) && process.exitValue() == 0) {
+				return true;
+			}
+			process.destroy();
+		}
+		catch (IOException e) {
+			//cp is not available
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		//the filesystem does not support clones, do not try again
+		DataFixerAPI.LOGGER.info("Reflink clones are not supported, falling back to copies");
+		reflinkUnsupported = true;
+		try {
+			Files.deleteIfExists(copy);
+		}
+		catch (IOException e) {
+			BCLib.LOGGER.warning("Unable to remove partial copy {}", copy, e);
+		}
+		return false;
+	}
+
+	private static void deleteRecursive(Path root) throws IOException {
+		if (!Files.exists(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
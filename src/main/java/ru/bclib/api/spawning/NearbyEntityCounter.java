@@ -0,0 +1,108 @@
+package ru.bclib.api.spawning;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.entity.EntitySectionStorage;
+import net.minecraft.world.level.entity.EntityTypeTest;
+import net.minecraft.world.phys.AABB;
+import ru.bclib.mixin.common.PersistentEntitySectionManagerAccessor;
+import ru.bclib.mixin.common.ServerLevelEntityAccessor;
+
+import java.lang.ref.WeakReference;
+import java.util.function.Consumer;
+
+/**
+ * Counts entities of one class around a spawn position without collecting them into a list.
+ * Counting stops at the limit, since spawn rules only need to know if the limit is reached: entity sections are
+ * visited one by one, and the entities of the remaining sections are skipped once the limit is reached.
+ * <p>
+ * With buckets enabled, counts are cached for the current tick in columns of {@code side x side} blocks,
+ * so all spawn attempts inside one column share the same result. This is an approximation of the exact
+ * per position check and is intended for mob-dense areas where the exact check is too expensive.
+ */
+class NearbyEntityCounter implements Consumer<Entity> {
+	private final EntityTypeTest<Entity, Entity> test;
+	private final Class<? extends Entity> baseClass;
+	private final int limit;
+	private final int side;
+	private final boolean useBuckets;
+	
+	private final Long2IntMap bucketCounts = new Long2IntOpenHashMap();
+	private WeakReference<ServerLevel> bucketLevel = new WeakReference<>(null);
+	private long bucketTick;
+	private int count;
+	
+	@SuppressWarnings("unchecked")
+	NearbyEntityCounter(Class<? extends Entity> baseClass, int limit, int side, boolean useBuckets) {
+		this.test = (EntityTypeTest<Entity, Entity>) EntityTypeTest.forClass(baseClass);
+		this.baseClass = baseClass;
+		this.limit = limit;
+		this.side = side;
+		this.useBuckets = useBuckets;
+		this.bucketCounts.defaultReturnValue(-1);
+	}
+	
+	/**
+	 * Checks if there are less entities around the position than the limit.
+	 * Fast path is only used on the server thread, world generation regions fall back to the regular entity query.
+	 * @param world {@link LevelAccessor} to check in.
+	 * @param pos {@link BlockPos} spawn position.
+	 * @return {@code true} if entity count is lower than the limit.
+	 */
+	boolean isBelowLimit(LevelAccessor world, BlockPos pos) {
+		if (!(world instanceof ServerLevel level) || !level.getServer().isSameThread()) {
+			final AABB box = new AABB(pos).inflate(side, world.getHeight(), side);
+			return world.getEntitiesOfClass(baseClass, box, (entity) -> true).size() < limit;
+		}
+		
+		if (!useBuckets) {
+			return count(level, pos.getX(), pos.getY(), pos.getZ()) < limit;
+		}
+		
+		final long tick = level.getGameTime();
+		if (bucketLevel.get() != level || bucketTick != tick) {
+			bucketCounts.clear();
+			bucketLevel = new WeakReference<>(level);
+			bucketTick = tick;
+		}
+		
+		final int bucketSize = Math.max(side, 16);
+		final int bucketX = Math.floorDiv(pos.getX(), bucketSize);
+		final int bucketZ = Math.floorDiv(pos.getZ(), bucketSize);
+		final long key = ChunkPos.asLong(bucketX, bucketZ);
+		
+		int result = bucketCounts.get(key);
+		if (result < 0) {
+			final int offset = bucketSize >> 1;
+			result = count(level, bucketX * bucketSize + offset, pos.getY(), bucketZ * bucketSize + offset);
+			bucketCounts.put(key, result);
+		}
+		return result < limit;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private int count(ServerLevel level, int x, int y, int z) {
+		final AABB box = new AABB(x, y, z, x + 1, y + 1, z + 1).inflate(side, level.getHeight(), side);
+		final EntitySectionStorage<Entity> storage = ((PersistentEntitySectionManagerAccessor<Entity>) ((ServerLevelEntityAccessor) level).bcl_getEntityManager()).bcl_getSectionStorage();
+		count = 0;
+		// same as LevelEntityGetter.get, but without visiting the entities of the remaining sections
+		storage.forEachAccessibleSection(box, section -> {
+			if (count < limit) {
+				section.getEntities(test, box, this);
+			}
+		});
+		return count;
+	}
+	
+	@Override
+	public void accept(Entity entity) {
+		if (count < limit) {
+			count++;
+		}
+	}
+}
@@ -12,7 +12,6 @@ import net.minecraft.world.entity.SpawnPlacements.SpawnPredicate;
 import net.minecraft.world.entity.SpawnPlacements.Type;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.levelgen.Heightmap.Types;
-import net.minecraft.world.phys.AABB;
 import ru.bclib.entity.BCLEntityWrapper;
 import ru.bclib.interfaces.SpawnRule;
 
@@ -219,13 +218,30 @@ public class SpawnRuleBuilder<M extends Mob> {
 	 * @return same {@link SpawnRuleBuilder} instance.
 	 */
 	public SpawnRuleBuilder maxNearby(EntityType<?> selectorType, int count, int side) {
+		return maxNearby(selectorType, count, side, false);
+	}
+	
+	/**
+	 * Will spawn entity only if count of nearby entities will be lower than specified.
+	 * Entity counts are cached for one tick in columns with specified side, all spawn attempts inside same column
+	 * will share the result. Less precise than {@link #maxNearby(EntityType, int, int)}, but much cheaper in mob-dense areas.
+	 * @param selectorType selector {@link EntityType} to search.
+	 * @param count max entity count.
+	 * @param side side of box to search in.
+	 * @return same {@link SpawnRuleBuilder} instance.
+	 */
+	public SpawnRuleBuilder maxNearbyCached(EntityType<?> selectorType, int count, int side) {
+		return maxNearby(selectorType, count, side, true);
+	}
+	
+	private SpawnRuleBuilder maxNearby(EntityType<?> selectorType, int count, int side, boolean useBuckets) {
 		final Class<? extends Entity> baseClass = selectorType.getBaseClass();
-		entryInstance = getFromCache("max_nearby_" + selectorType.getDescriptionId()+"_"+count+"_"+side, () -> {
+		final String prefix = useBuckets ? "max_nearby_cached_" : "max_nearby_";
+		entryInstance = getFromCache(prefix + selectorType.getDescriptionId()+"_"+count+"_"+side, () -> {
+			final NearbyEntityCounter counter = new NearbyEntityCounter(baseClass, count, side, useBuckets);
 			return new SpawnRuleEntry(3, (type, world, spawnReason, pos, random) -> {
 				try {
-					final AABB box = new AABB(pos).inflate(side, world.getHeight(), side);
-					final List<?> list = world.getEntitiesOfClass(baseClass, box, (entity) -> true);
-					return list.size() < count;
+					return counter.isBelowLimit(world, pos);
 				}
 				catch (Exception e) {
 					return true;
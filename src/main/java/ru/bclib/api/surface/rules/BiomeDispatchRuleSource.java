@@ -0,0 +1,97 @@
+package ru.bclib.api.surface.rules;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mojang.serialization.Codec;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.SurfaceRules;
+import net.minecraft.world.level.levelgen.SurfaceRules.BiomeConditionSource;
+import net.minecraft.world.level.levelgen.SurfaceRules.Context;
+import net.minecraft.world.level.levelgen.SurfaceRules.RuleSource;
+import net.minecraft.world.level.levelgen.SurfaceRules.SurfaceRule;
+import net.minecraft.world.level.levelgen.SurfaceRules.TestRuleSource;
+import org.jetbrains.annotations.Nullable;
+import ru.bclib.mixin.common.SurfaceRulesContextAccessor;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Replaces a run of {@code ifTrue(isBiome(...), rule)} entries with a single lookup on the current biome key.
+ * Only the rules of the biome at the current position are evaluated, results are the same as for the original sequence.
+ */
+public record BiomeDispatchRuleSource(Map<ResourceKey<Biome>, RuleSource> biomeRules) implements RuleSource {
+	@Override
+	public Codec<? extends RuleSource> codec() {
+		return RuleSource.CODEC;
+	}
+
+	@Override
+	public SurfaceRule apply(Context context) {
+		final SurfaceRulesContextAccessor ctx = SurfaceRulesContextAccessor.class.cast(context);
+		final Map<ResourceKey<Biome>, SurfaceRule> bound = new IdentityHashMap<>(biomeRules.size());
+		biomeRules.forEach((key, rule) -> bound.put(key, rule.apply(context)));
+
+		//the context replaces its biome supplier on every updateY, so it has to be read for every position
+		return new Dispatch(() -> ctx.getBiomeKey().get(), bound);
+	}
+
+	/**
+	 * Bound rule that forwards to the rule of the current biome.
+	 */
+	static final class Dispatch implements SurfaceRule {
+		private final Supplier<ResourceKey<Biome>> biomeKey;
+		private final Map<ResourceKey<Biome>, SurfaceRule> rules;
+
+		Dispatch(Supplier<ResourceKey<Biome>> biomeKey, Map<ResourceKey<Biome>, SurfaceRule> rules) {
+			this.biomeKey = biomeKey;
+			this.rules = rules;
+		}
+
+		@Nullable
+		@Override
+		public BlockState tryApply(int x, int y, int z) {
+			SurfaceRule rule = rules.get(biomeKey.get());
+			return rule == null ? null : rule.tryApply(x, y, z);
+		}
+	}
+
+	/**
+	 * Compiles rule list, every continuous run of biome-restricted rules is merged into one {@link BiomeDispatchRuleSource}.
+	 * Rules for different biomes can never both match, so only the order of rules inside one biome is relevant.
+	 * All other rules keep their position in the list.
+	 * @param rules {@link List} of {@link RuleSource} to compile.
+	 * @return new mutable {@link List} of {@link RuleSource}.
+	 */
+	public static List<RuleSource> compile(List<RuleSource> rules) {
+		List<RuleSource> result = Lists.newArrayList();
+		Map<ResourceKey<Biome>, List<RuleSource>> run = Maps.newLinkedHashMap();
+		for (RuleSource rule : rules) {
+			if (rule instanceof TestRuleSource test && test.ifTrue() instanceof BiomeConditionSource condition) {
+				condition.biomes.forEach(key -> run.computeIfAbsent(key, k -> Lists.newArrayList()).add(test.thenRun()));
+				continue;
+			}
+			flush(run, result);
+			result.add(rule);
+		}
+		flush(run, result);
+		return result;
+	}
+
+	private static void flush(Map<ResourceKey<Biome>, List<RuleSource>> run, List<RuleSource> result) {
+		if (run.isEmpty()) {
+			return;
+		}
+		Map<ResourceKey<Biome>, RuleSource> biomeRules = new IdentityHashMap<>(run.size());
+		run.forEach((key, list) -> {
+			RuleSource rule = list.size() == 1 ? list.get(0) : SurfaceRules.sequence(list.toArray(new RuleSource[list.size()]));
+			biomeRules.put(key, rule);
+		});
+		result.add(new BiomeDispatchRuleSource(biomeRules));
+		run.clear();
+	}
+}
@@ -16,20 +16,38 @@ public record SwitchRuleSource(NumericProvider selector, List<RuleSource> collec
 	public Codec<? extends RuleSource> codec() {
 		return RuleSource.CODEC;
 	}
-	
+
 	@Override
 	public SurfaceRule apply(Context context) {
-		
-		return new SurfaceRule() {
-			@Nullable
-			@Override
-			public BlockState tryApply(int x, int y, int z) {
-				final SurfaceRulesContextAccessor ctx = SurfaceRulesContextAccessor.class.cast(context);
-				int nr = Math.max(0, selector.getNumber(ctx)) % collection.size();
-				
-				return collection.get(nr).apply(context).tryApply(x, y, z);
-			}
-		};
-		
+		final SurfaceRulesContextAccessor ctx = SurfaceRulesContextAccessor.class.cast(context);
+		final int size = collection.size();
+		final SurfaceRule[] rules = new SurfaceRule[size];
+		for (int i = 0; i < size; i++) {
+			rules[i] = collection.get(i).apply(context);
+		}
+
+		return new Switch(selector, ctx, rules);
+	}
+
+	/**
+	 * Bound rule that forwards to the rule picked by the selector.
+	 */
+	static final class Switch implements SurfaceRule {
+		private final NumericProvider selector;
+		private final SurfaceRulesContextAccessor context;
+		private final SurfaceRule[] rules;
+
+		Switch(NumericProvider selector, SurfaceRulesContextAccessor context, SurfaceRule[] rules) {
+			this.selector = selector;
+			this.context = context;
+			this.rules = rules;
+		}
+
+		@Nullable
+		@Override
+		public BlockState tryApply(int x, int y, int z) {
+			int nr = Math.max(0, selector.getNumber(context)) % rules.length;
+			return rules[nr].tryApply(x, y, z);
+		}
 	}
 }
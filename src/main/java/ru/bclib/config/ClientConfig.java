@@ -18,6 +18,9 @@ public class ClientConfig extends NamedPathConfig {
 	@ConfigUI(leftPadding = 8)
 	public static final DependendConfigToken<Boolean> DISPLAY_MOD_INFO = DependendConfigToken.Boolean(true, "displayModInfo", AutoSync.SYNC_CATEGORY, (config) -> config.get(ENABLED));
 
+	@ConfigUI(hide = true)
+	public static final ConfigToken<Integer> DOWNLOAD_CACHE_SIZE = ConfigToken.Int(256, "downloadCacheSize", AutoSync.SYNC_CATEGORY);
+
 	@ConfigUI(topPadding = 12)
 	public static final ConfigToken<Boolean> DEBUG_HASHES = ConfigToken.Boolean(false, "debugHashes", AutoSync.SYNC_CATEGORY);
 
@@ -46,6 +49,13 @@ public class ClientConfig extends NamedPathConfig {
 		return get(ACCEPT_FILES) /*&& isAllowingAutoSync()*/;
 	}
 
+	/**
+	 * @return The maximum size (in MiB) of files that are kept for later syncs, {@code 0} disables the cache
+	 */
+	public int getDownloadCacheSize() {
+		return get(DOWNLOAD_CACHE_SIZE);
+	}
+
 	public boolean isShowingModInfo() {
 		return get(DISPLAY_MOD_INFO) /*&& isAllowingAutoSync()*/;
 	}
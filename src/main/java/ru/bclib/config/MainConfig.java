@@ -8,6 +8,15 @@ public class MainConfig  extends NamedPathConfig {
 	@ConfigUI(leftPadding = 8)
 	public static final ConfigToken<Boolean> REPAIR_BIOMES = DependendConfigToken.Boolean(true, "repairBiomesOnLoad", Configs.MAIN_PATCH_CATEGORY, (config) -> config.get(APPLY_PATCHES));
 	
+	@ConfigUI(leftPadding = 8)
+	public static final ConfigToken<Boolean> FORCE_FULL_SCAN = DependendConfigToken.Boolean(false, "forceFullScan", Configs.MAIN_PATCH_CATEGORY, (config) -> config.get(APPLY_PATCHES));
+	
+	@ConfigUI(leftPadding = 8)
+	public static final ConfigToken<Boolean> SNAPSHOT_BACKUP = DependendConfigToken.Boolean(false, "snapshotBackup", Configs.MAIN_PATCH_CATEGORY, (config) -> config.get(APPLY_PATCHES));
+	
+	@ConfigUI(leftPadding = 8)
+	public static final ConfigToken<Boolean> DRY_RUN_PATCHES = DependendConfigToken.Boolean(false, "dryRunPatches", Configs.MAIN_PATCH_CATEGORY, (config) -> config.get(APPLY_PATCHES));
+	
 	public MainConfig() {
 		super(BCLib.MOD_ID, "main", true, true);
 	}
@@ -19,4 +28,16 @@ public class MainConfig  extends NamedPathConfig {
 	public boolean repairBiomes() {
 		return get(REPAIR_BIOMES);
 	}
+	
+	public boolean forceFullScan() {
+		return get(FORCE_FULL_SCAN);
+	}
+	
+	public boolean snapshotBackup() {
+		return get(SNAPSHOT_BACKUP);
+	}
+	
+	public boolean dryRunPatches() {
+		return get(DRY_RUN_PATCHES);
+	}
 }
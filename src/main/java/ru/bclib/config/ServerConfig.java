@@ -13,6 +13,8 @@ public class ServerConfig extends NamedPathConfig {
 	public static final DependendConfigToken<Boolean> OFFER_MODS = DependendConfigToken.Boolean(true, "offerMods", AutoSync.SYNC_CATEGORY, (config) -> config.get(ENABLED));
 	public static final DependendConfigToken<Boolean> OFFER_ALL_MODS = DependendConfigToken.Boolean(false, "offerAllMods", AutoSync.SYNC_CATEGORY, (config) -> config.get(OFFER_MODS));
 	public static final DependendConfigToken<Boolean> SEND_ALL_MOD_INFO = DependendConfigToken.Boolean(false, "sendAllModInfo", AutoSync.SYNC_CATEGORY, (config) -> config.get(ENABLED));
+	public static final DependendConfigToken<Boolean> WATCH_FILES = DependendConfigToken.Boolean(false, "watchFiles", AutoSync.SYNC_CATEGORY, (config) -> config.get(ENABLED));
+	public static final DependendConfigToken<Boolean> VERIFY_HASH_CACHE = DependendConfigToken.Boolean(false, "verifyHashCache", AutoSync.SYNC_CATEGORY, (config) -> config.get(ENABLED));
 
 
 	public static final ConfigToken<List<String>> ADDITIONAL_MODS = ConfigToken.StringArray(new ArrayList<>(0), "additionalMods", AutoSync.SYNC_CATEGORY);
@@ -46,5 +48,19 @@ public class ServerConfig extends NamedPathConfig {
 	public boolean isOfferingInfosForMods() {
 		return get(SEND_ALL_MOD_INFO) /*&& isAllowingAutoSync()*/;
 	}
+
+	/**
+	 * @return {@code true} if synced files should be watched for changes while the server is running
+	 */
+	public boolean isWatchingFiles() {
+		return get(WATCH_FILES);
+	}
+
+	/**
+	 * @return {@code true} if cached file hashes should be recalculated and checked (see {@link ru.bclib.api.dataexchange.FileHashCache})
+	 */
+	public boolean isVerifyingHashCache() {
+		return get(VERIFY_HASH_CACHE);
+	}
 	
 }
@@ -64,17 +64,18 @@ public abstract class MinecraftMixin {
 		DataExchangeAPI.prepareServerside();
 		BiomeAPI.prepareWorldData();
 		
+		final boolean suppressDialog = Configs.CLIENT_CONFIG.suppressExperimentalDialog();
 		if (DataFixerAPI.fixData(this.levelSource, levelID, true, (appliedFixes) -> {
 			LifeCycleAPI._runBeforeLevelLoad();
-			this.doLoadLevel(levelID, RegistryAccess.builtin(), Minecraft::loadDataPacks, Minecraft::loadWorldData, false, appliedFixes ? ExperimentalDialogType.NONE : ExperimentalDialogType.BACKUP);
+			this.doLoadLevel(levelID, RegistryAccess.builtin(), Minecraft::loadDataPacks, Minecraft::loadWorldData, false, appliedFixes || suppressDialog ? ExperimentalDialogType.NONE : ExperimentalDialogType.BACKUP);
 		})) {
+			//the level is loaded by the callback (or not at all after a dry run)
 			ci.cancel();
-		}
-		else {
-			LifeCycleAPI._runBeforeLevelLoad();
+			return;
 		}
 		
-		if (Configs.CLIENT_CONFIG.suppressExperimentalDialog()) {
+		LifeCycleAPI._runBeforeLevelLoad();
+		if (suppressDialog) {
 			this.doLoadLevel(levelID, RegistryAccess.builtin(), Minecraft::loadDataPacks, Minecraft::loadWorldData, false, ExperimentalDialogType.NONE);
 			ci.cancel();
 		}
@@ -20,7 +20,7 @@ import java.util.Optional;
 
 @Mixin(Main.class)
 abstract public class MainMixin {
-	@Inject(method="main", at=@At(value="INVOKE", target="Lnet/minecraft/world/level/storage/LevelStorageSource;createDefault(Ljava/nio/file/Path;)Lnet/minecraft/world/level/storage/LevelStorageSource;"))
+	@Inject(method="main", cancellable = true, at=@At(value="INVOKE", target="Lnet/minecraft/world/level/storage/LevelStorageSource;createDefault(Ljava/nio/file/Path;)Lnet/minecraft/world/level/storage/LevelStorageSource;"))
 	private static void bclib_callServerFix(String[] args, CallbackInfo ci){
 		OptionParser parser = new OptionParser();
 		ArgumentAcceptingOptionSpec<String> optionUniverse = parser.accepts("universe").withRequiredArg().defaultsTo(".", new String[0]);
@@ -34,7 +34,11 @@ abstract public class MainMixin {
 		String levelID = Optional.ofNullable(options.valueOf(optionWorld)).orElse(settings.getProperties().levelName);
 
 		LevelStorageSource levelStorageSource = LevelStorageSource.createDefault(file.toPath());
-		DataFixerAPI.fixData(levelStorageSource, levelID, false, (didFix)->{/* not called when showUI==false */});
+		//after a dry run the migration is still pending, so the server must not start
+		if (DataFixerAPI.fixData(levelStorageSource, levelID, false, (didFix)->{/* not called when showUI==false */})) {
+			ci.cancel();
+			return;
+		}
 
 		LifeCycleAPI._runBeforeLevelLoad();
 	}
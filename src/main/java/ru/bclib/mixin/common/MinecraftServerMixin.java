@@ -21,6 +21,7 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import ru.bclib.api.LifeCycleAPI;
 import ru.bclib.api.dataexchange.DataExchangeAPI;
 import ru.bclib.recipes.BCLRecipeManager;
 
@@ -47,6 +48,11 @@ public class MinecraftServerMixin {
 		DataExchangeAPI.prepareServerside();
 	}
 
+	@Inject(method = "stopServer", at = @At("TAIL"))
+	private void bclib_onServerStop(CallbackInfo info) {
+		LifeCycleAPI._runServerStop(MinecraftServer.class.cast(this));
+	}
+
 	@Inject(method = "reloadResources", at = @At(value = "RETURN"), cancellable = true)
 	private void bclib_reloadResources(Collection<String> collection, CallbackInfoReturnable<CompletableFuture<Void>> info) {
 		bclib_injectRecipes();
@@ -7,6 +7,7 @@ import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Mutable;
 import org.spongepowered.asm.mixin.Shadow;
+import ru.bclib.api.surface.rules.BiomeDispatchRuleSource;
 import ru.bclib.interfaces.SurfaceRuleProvider;
 
 import java.util.List;
@@ -35,8 +36,10 @@ public class NoiseGeneratorSettingsMixin implements SurfaceRuleProvider {
 		if (org instanceof SurfaceRules.SequenceRuleSource sequenceRule){
 			List<RuleSource> currentSequence = sequenceRule.sequence();
 			rules = rules.stream().filter(r -> currentSequence.indexOf(r)<0).collect(Collectors.toList());
+			rules = BiomeDispatchRuleSource.compile(rules);
 			rules.addAll(sequenceRule.sequence());
 		} else {
+			rules = BiomeDispatchRuleSource.compile(rules);
 			rules.add(org);
 		}
 		setSurfaceRule(SurfaceRules.sequence(rules.toArray(new RuleSource[rules.size()])));
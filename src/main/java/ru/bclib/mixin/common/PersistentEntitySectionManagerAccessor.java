@@ -0,0 +1,12 @@
+package ru.bclib.mixin.common;
+
+import net.minecraft.world.level.entity.EntitySectionStorage;
+import net.minecraft.world.level.entity.PersistentEntitySectionManager;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(PersistentEntitySectionManager.class)
+public interface PersistentEntitySectionManagerAccessor<T> {
+	@Accessor("sectionStorage")
+	EntitySectionStorage<T> bcl_getSectionStorage();
+}
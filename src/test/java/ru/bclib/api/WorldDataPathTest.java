@@ -0,0 +1,37 @@
+package ru.bclib.api;
+
+import net.minecraft.nbt.CompoundTag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class WorldDataPathTest {
+	private static final String MOD_ID = "bclib_path_test";
+
+	@Test
+	void followsReplacedParents() {
+		final WorldDataPath path = WorldDataPath.of(MOD_ID, "stats.global");
+		path.putInt("visits", 1);
+
+		//replace the parent of the cached leaf
+		final CompoundTag stats = new CompoundTag();
+		final CompoundTag global = new CompoundTag();
+		global.putInt("visits", 5);
+		stats.put("global", global);
+		WorldDataAPI.getRootTag(MOD_ID).put("stats", stats);
+
+		assertSame(global, path.getTag());
+		assertEquals(5, path.getInt("visits"));
+
+		path.putInt("visits", 6);
+		assertEquals(6, WorldDataAPI.getCompoundTag(MOD_ID, "stats.global").getInt("visits"));
+	}
+
+	@Test
+	void reusesAttachedTags() {
+		final WorldDataPath path = WorldDataPath.of(MOD_ID, "cache.leaf");
+		assertSame(path.getTag(), path.getTag());
+		assertSame(path.getTag(), WorldDataAPI.getRootTag(MOD_ID).getCompound("cache").getCompound("leaf"));
+	}
+}
@@ -0,0 +1,43 @@
+package ru.bclib.api.biomes;
+
+import com.google.common.collect.Maps;
+import net.minecraft.SharedConstants;
+import net.minecraft.data.BuiltinRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.biome.Biomes;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BiomeModificationTest {
+	@BeforeAll
+	static void bootstrap() {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+	}
+
+	@Test
+	void modificationsRunForEveryWorld() {
+		final Biome biome = BuiltinRegistries.BIOME.getOrThrow(Biomes.PLAINS);
+		final AtomicInteger calls = new AtomicInteger();
+		final List<BiConsumer<ResourceLocation, Biome>> modifications = List.of((id, b) -> calls.incrementAndGet());
+
+		//the same Biome instance is used by both worlds
+		for (int world = 1; world <= 2; world++) {
+			BiomeAPI.prepareWorldData();
+			assertTrue(BiomeAPI.applyModificationsToBiome(modifications, biome, Maps.newIdentityHashMap()));
+			//a second dimension of the same world shares the biome
+			assertFalse(BiomeAPI.applyModificationsToBiome(modifications, biome, Maps.newIdentityHashMap()));
+			assertEquals(world, calls.get());
+		}
+	}
+}
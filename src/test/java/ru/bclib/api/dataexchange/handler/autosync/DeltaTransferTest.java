@@ -0,0 +1,98 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import org.junit.jupiter.api.Test;
+import ru.bclib.api.dataexchange.FileHash;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rebuilds changed files from a local copy and the delta the server would send.
+ */
+class DeltaTransferTest {
+	private static final int SIZE = 256 * 1024;
+
+	@Test
+	void insert() throws IOException {
+		final byte[] basis = randomBytes(SIZE, 1);
+		final byte[] inserted = randomBytes(1000, 2);
+		assertRoundTrip(basis, concat(Arrays.copyOfRange(basis, 0, 100_000), inserted, Arrays.copyOfRange(basis, 100_000, SIZE)));
+	}
+
+	@Test
+	void delete() throws IOException {
+		final byte[] basis = randomBytes(SIZE, 3);
+		assertRoundTrip(basis, concat(Arrays.copyOfRange(basis, 0, 50_000), Arrays.copyOfRange(basis, 60_000, SIZE)));
+	}
+
+	@Test
+	void blockMove() throws IOException {
+		final byte[] basis = randomBytes(SIZE, 4);
+		final int half = SIZE / 2;
+		assertRoundTrip(basis, concat(Arrays.copyOfRange(basis, half, SIZE), Arrays.copyOfRange(basis, 0, half)));
+	}
+
+	@Test
+	void repeatedBlocks() throws IOException {
+		//all blocks of the basis share the same checksums
+		final byte[] block = randomBytes(1024, 10);
+		final byte[] basis = concat(block, block, block, block, block, block, block, block, randomBytes(SIZE, 11));
+		assertRoundTrip(basis, concat(randomBytes(500, 12), basis));
+	}
+
+	@Test
+	void fallsBackForUnrelatedContent() {
+		final DeltaTransfer.Signature signature = DeltaTransfer.createSignature(randomBytes(SIZE, 5));
+		assertNull(DeltaTransfer.createDelta(signature, randomBytes(SIZE, 6)));
+	}
+
+	@Test
+	void fallsBackForSmallContent() {
+		final DeltaTransfer.Signature signature = DeltaTransfer.createSignature(randomBytes(SIZE, 7));
+		assertNull(DeltaTransfer.createDelta(signature, randomBytes(100, 7)));
+	}
+
+	@Test
+	void rejectsWrongSizes() {
+		final byte[] basis = randomBytes(SIZE, 8);
+		final byte[] target = concat(basis, randomBytes(1000, 9));
+		final byte[] delta = DeltaTransfer.createDelta(DeltaTransfer.createSignature(basis), target);
+		assertNotNull(delta);
+
+		final FileHash hash = FileHash.create(target);
+		assertThrows(IOException.class, () -> DeltaTransfer.applyDelta(basis, delta, hash, -1));
+		assertThrows(IOException.class, () -> DeltaTransfer.applyDelta(basis, delta, hash, Integer.MAX_VALUE));
+		assertThrows(IOException.class, () -> DeltaTransfer.applyDelta(basis, delta, hash, target.length - 1));
+		assertThrows(IOException.class, () -> DeltaTransfer.applyDelta(basis, delta, hash, target.length + 1));
+	}
+
+	private static void assertRoundTrip(byte[] basis, byte[] target) throws IOException {
+		final byte[] delta = DeltaTransfer.createDelta(DeltaTransfer.createSignature(basis), target);
+		assertNotNull(delta, "expected a delta");
+		assertTrue(delta.length < target.length / 4, "delta is too large (" + delta.length + " bytes)");
+		assertArrayEquals(target, DeltaTransfer.applyDelta(basis, delta, FileHash.create(target), target.length));
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		final byte[] result = new byte[Arrays.stream(parts).mapToInt(p -> p.length).sum()];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+
+	private static byte[] randomBytes(int size, long seed) {
+		final byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
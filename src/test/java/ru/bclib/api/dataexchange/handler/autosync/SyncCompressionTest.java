@@ -0,0 +1,27 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SyncCompressionTest {
+	private static final byte[] CONTENT = "{\"enabled\": true, \"values\": [1, 2, 3, 4, 5, 6, 7, 8]}".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void roundTrip() throws IOException {
+		final byte[] compressed = SyncCompression.DEFLATE.compress(CONTENT);
+		assertArrayEquals(CONTENT, SyncCompression.DEFLATE.decompress(compressed, CONTENT.length));
+	}
+
+	@Test
+	void rejectsInvalidSizes() {
+		final byte[] compressed = SyncCompression.DEFLATE.compress(CONTENT);
+		assertThrows(IOException.class, () -> SyncCompression.DEFLATE.decompress(compressed, -1));
+		assertThrows(IOException.class, () -> SyncCompression.DEFLATE.decompress(compressed, Integer.MAX_VALUE));
+		assertThrows(IOException.class, () -> SyncCompression.DEFLATE.decompress(compressed, CONTENT.length - 1));
+	}
+}
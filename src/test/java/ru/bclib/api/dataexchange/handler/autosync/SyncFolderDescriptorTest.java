@@ -0,0 +1,62 @@
+package ru.bclib.api.dataexchange.handler.autosync;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Indexes a large sync folder, like a modpack with many config files.
+ */
+class SyncFolderDescriptorTest {
+	private static final int FOLDERS = 100;
+	private static final int FILES_PER_FOLDER = 100;
+
+	@Test
+	@Tag("benchmark")
+	void benchmarkLargeFolder(@TempDir Path root) throws IOException {
+		final List<String> relPaths = new ArrayList<>(FOLDERS * FILES_PER_FOLDER);
+		for (int folder = 0; folder < FOLDERS; folder++) {
+			final Path dir = Files.createDirectory(root.resolve("folder_" + folder));
+			for (int file = 0; file < FILES_PER_FOLDER; file++) {
+				final Path path = dir.resolve("file_" + file + ".json");
+				Files.writeString(path, "{\"folder\": " + folder + ", \"file\": " + file + "}", StandardCharsets.UTF_8);
+				relPaths.add(root.relativize(path).toString());
+			}
+		}
+
+		for (int round = 0; round < 5; round++) {
+			//a new descriptor has no cache, like after a restart
+			final SyncFolderDescriptor desc = new SyncFolderDescriptor("benchmark", root, false);
+			final long loadStart = System.nanoTime();
+			desc.loadCache();
+			final long loadTime = System.nanoTime() - loadStart;
+			assertEquals(relPaths.size(), desc.fileCount());
+
+			final long lookupStart = System.nanoTime();
+			for (String relPath : relPaths) {
+				assertNotNull(desc.getLocalSubFile(relPath), relPath);
+			}
+			final long lookupTime = System.nanoTime() - lookupStart;
+
+			System.out.println(String.format(
+				Locale.ROOT,
+				"Round %d, %d files: loadCache %dms, getLocalSubFile %.1f ns/file",
+				round,
+				relPaths.size(),
+				loadTime / 1000000,
+				(double) lookupTime / relPaths.size()
+			));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongTag;
+import net.minecraft.world.level.ChunkPos;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.bclib.interfaces.PatchBiFunction;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that BlockState patchers see the packed states of both chunk layouts, and that their changes are saved.
+ */
+class BlockStatePatchTest {
+	private static final String MOD_ID = "bclib_state_test";
+	private static final String PATCHED_BLOCK = MOD_ID + ":patched_block";
+	private static MigrationProfile profile;
+
+	@BeforeAll
+	static void registerPatch() {
+		DataFixerAPI.registerPatch(() -> new Patch(MOD_ID, "0.0.1") {
+			@Override
+			public PatchBiFunction<ListTag, ListTag, Boolean> getBlockStatePatcher() {
+				//sets every packed long to the number of longs the patcher received
+				return (palette, states, profile) -> {
+					final int size = states.size();
+					for (int i = 0; i < size; i++) {
+						states.set(i, LongTag.valueOf(size));
+					}
+					return size > 0;
+				};
+			}
+
+			@Override
+			public Set<String> getBlockStatePatcherIDs() {
+				return Set.of(PATCHED_BLOCK);
+			}
+		});
+		profile = new MigrationProfile(new CompoundTag(), true);
+	}
+
+	@Test
+	void patchesModernLayout() {
+		CompoundTag blockStates = new CompoundTag();
+		blockStates.put("palette", palette());
+		blockStates.putLongArray("data", new long[]{1, 2, 3});
+		CompoundTag section = new CompoundTag();
+		section.put("block_states", blockStates);
+		ListTag sections = new ListTag();
+		sections.add(section);
+		CompoundTag root = new CompoundTag();
+		root.put("sections", sections);
+
+		assertTrue(DataFixerAPI.fixChunkTag(profile, new DataFixerAPI.State(), new ChunkPos(0, 0), root));
+		assertArrayEquals(new long[]{3, 3, 3}, blockStates.getLongArray("data"));
+	}
+
+	@Test
+	void patchesLegacyLayout() {
+		CompoundTag section = new CompoundTag();
+		section.put("Palette", palette());
+		section.putLongArray("BlockStates", new long[]{1, 2});
+		ListTag sections = new ListTag();
+		sections.add(section);
+		CompoundTag level = new CompoundTag();
+		level.put("Sections", sections);
+		CompoundTag root = new CompoundTag();
+		root.put("Level", level);
+
+		assertTrue(DataFixerAPI.fixChunkTag(profile, new DataFixerAPI.State(), new ChunkPos(0, 0), root));
+		assertArrayEquals(new long[]{2, 2}, section.getLongArray("BlockStates"));
+	}
+
+	private static ListTag palette() {
+		CompoundTag block = new CompoundTag();
+		block.putString("Name", PATCHED_BLOCK);
+		ListTag palette = new ListTag();
+		palette.add(block);
+		return palette;
+	}
+}
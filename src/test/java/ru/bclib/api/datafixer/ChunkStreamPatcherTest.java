@@ -0,0 +1,303 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link ChunkStreamPatcher} produces the same chunks as the tag tree based
+ * {@link DataFixerAPI#fixChunkTag(MigrationProfile, DataFixerAPI.State, ChunkPos, CompoundTag)}.
+ */
+class ChunkStreamPatcherTest {
+	private static final String MOD_ID = "bclib_stream_test";
+	private static Patch patch;
+	private static MigrationProfile profile;
+
+	@BeforeAll
+	static void registerPatch() {
+		patch = new Patch(MOD_ID, "0.0.1") {
+			@Override
+			public Map<String, String> getIDReplacements() {
+				return Map.of(
+					MOD_ID + ":old_block", MOD_ID + ":new_block",
+					MOD_ID + ":old_chest", MOD_ID + ":new_chest",
+					MOD_ID + ":old_item", MOD_ID + ":new_item",
+					MOD_ID + ":old_mob", MOD_ID + ":new_mob"
+				);
+			}
+
+			@Override
+			public Map<String, String> getBiomeIDReplacements() {
+				return Map.of(MOD_ID + ":old_biome", MOD_ID + ":new_biome");
+			}
+		};
+		DataFixerAPI.registerPatch(() -> patch);
+		profile = new MigrationProfile(new CompoundTag(), true);
+	}
+
+	/**
+	 * Patches are registered globally, other tests must not see this one.
+	 */
+	@AfterAll
+	static void removePatch() {
+		Patch.getALL().remove(patch);
+	}
+
+	@Test
+	void legacyLayoutMatchesTreePatch() throws IOException {
+		CompoundTag level = new CompoundTag();
+		level.put("Sections", list(
+			section("Palette", "minecraft:stone", MOD_ID + ":old_block"),
+			section("Palette", "minecraft:air")
+		));
+		level.put("TileEntities", list(chest(MOD_ID + ":old_chest", item(MOD_ID + ":old_item"), shulker(item(MOD_ID + ":old_item")))));
+		CompoundTag root = new CompoundTag();
+		root.put("Level", level);
+		root.putInt("DataVersion", 2730);
+
+		assertSamePatch(root, true);
+	}
+
+	@Test
+	void modernLayoutMatchesTreePatch() throws IOException {
+		CompoundTag section = new CompoundTag();
+		CompoundTag blockStates = new CompoundTag();
+		blockStates.put("palette", list(block("minecraft:stone"), block(MOD_ID + ":old_block")));
+		blockStates.putLongArray("data", new long[]{1, 2, 3});
+		section.put("block_states", blockStates);
+		CompoundTag biomes = new CompoundTag();
+		ListTag biomePalette = new ListTag();
+		biomePalette.add(StringTag.valueOf("minecraft:plains"));
+		biomePalette.add(StringTag.valueOf(MOD_ID + ":old_biome"));
+		biomes.put("palette", biomePalette);
+		section.put("biomes", biomes);
+
+		CompoundTag mob = new CompoundTag();
+		mob.putString("id", MOD_ID + ":old_mob");
+		mob.put("Inventory", list(item(MOD_ID + ":old_item")));
+		CompoundTag frame = new CompoundTag();
+		frame.putString("id", "minecraft:item_frame");
+		frame.put("Item", item(MOD_ID + ":old_item"));
+
+		CompoundTag root = new CompoundTag();
+		root.put("sections", list(section));
+		root.put("block_entities", list(chest(MOD_ID + ":old_chest", item("minecraft:stick"))));
+		root.put("Entities", list(mob, frame));
+		//IDs at other locations are not touched by either path
+		root.putString("id", MOD_ID + ":old_block");
+		root.put("structures", list(block(MOD_ID + ":old_block")));
+
+		assertSamePatch(root, true);
+	}
+
+	@Test
+	void unchangedChunkMatchesTreePatch() throws IOException {
+		CompoundTag root = new CompoundTag();
+		root.put("sections", list(section("palette", "minecraft:stone")));
+		root.put("block_entities", list(chest("minecraft:chest", item("minecraft:stick"))));
+
+		assertSamePatch(root, false);
+	}
+
+	@Test
+	void rejectsDeeplyNestedData() throws IOException {
+		CompoundTag root = new CompoundTag();
+		CompoundTag current = root;
+		for (int i = 0; i < ChunkStreamPatcher.MAX_DEPTH + 10; i++) {
+			CompoundTag child = new CompoundTag();
+			current.put("child", child);
+			current = child;
+		}
+		final byte[] data = write(root);
+		assertThrows(IOException.class, () -> new ChunkStreamPatcher(profile, null, false).patch(
+			new DataInputStream(new ByteArrayInputStream(data)),
+			new DataOutputStream(new ByteArrayOutputStream())
+		));
+	}
+
+	@Test
+	@Tag("benchmark")
+	void benchmarkStreamAgainstTree(@TempDir Path folder) throws IOException {
+		ListTag sections = new ListTag();
+		for (int y = 0; y < 24; y++) {
+			CompoundTag section = new CompoundTag();
+			CompoundTag blockStates = new CompoundTag();
+			ListTag palette = new ListTag();
+			for (int i = 0; i < 16; i++) {
+				palette.add(block(i == 0 ? MOD_ID + ":old_block" : "minecraft:block_" + i));
+			}
+			blockStates.put("palette", palette);
+			blockStates.putLongArray("data", new long[256]);
+			section.put("block_states", blockStates);
+			sections.add(section);
+		}
+		CompoundTag root = new CompoundTag();
+		root.put("sections", sections);
+		final byte[] data = write(root);
+
+		//a complete region, written (and compressed) by vanilla
+		final Path path = folder.resolve("r.0.0.mca");
+		try (RegionFile region = new RegionFile(path, folder, true)) {
+			for (int x = 0; x < 32; x++) {
+				for (int z = 0; z < 32; z++) {
+					RegionFileReaderTest.write(region, new ChunkPos(x, z), data);
+				}
+			}
+		}
+
+		final ChunkStreamPatcher patcher = new ChunkStreamPatcher(profile, null, false);
+		final DataFixerAPI.State state = new DataFixerAPI.State();
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			try (RegionFileReader reader = new RegionFileReader(path)) {
+				for (int x = 0; x < 32; x++) {
+					for (int z = 0; z < 32; z++) {
+						final byte[] chunk = reader.readChunk(new ChunkPos(x, z));
+						ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length + 256);
+						patcher.patch(new DataInputStream(new ByteArrayInputStream(chunk)), new DataOutputStream(out));
+					}
+				}
+			}
+			final long streamTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			try (RegionFileReader reader = new RegionFileReader(path)) {
+				for (int x = 0; x < 32; x++) {
+					for (int z = 0; z < 32; z++) {
+						final ChunkPos pos = new ChunkPos(x, z);
+						CompoundTag tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(reader.readChunk(pos))));
+						DataFixerAPI.fixChunkTag(profile, state, pos, tag);
+						write(tag);
+					}
+				}
+			}
+			final long treeTime = System.nanoTime() - start;
+
+			System.out.println(String.format(
+				Locale.ROOT,
+				"Round %d, region with 1024 chunks of %d KiB: stream %dms (%.1f MiB/s), tree %dms (%.1f MiB/s)",
+				round,
+				data.length / 1024,
+				streamTime / 1000000,
+				throughput(data.length, 1024, streamTime),
+				treeTime / 1000000,
+				throughput(data.length, 1024, treeTime)
+			));
+		}
+		assertFalse(state.hasError(), state.getErrorMessage());
+	}
+
+	private static void assertSamePatch(CompoundTag chunk, boolean expectChange) throws IOException {
+		final byte[] data = write(chunk);
+
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		final boolean streamChanged = new ChunkStreamPatcher(profile, null, false).patch(
+			new DataInputStream(new ByteArrayInputStream(data)),
+			new DataOutputStream(streamed)
+		);
+
+		final CompoundTag tree = NbtIo.read(new DataInputStream(new ByteArrayInputStream(data)));
+		final DataFixerAPI.State state = new DataFixerAPI.State();
+		final boolean treeChanged = DataFixerAPI.fixChunkTag(profile, state, new ChunkPos(0, 0), tree);
+
+		assertFalse(state.hasError(), state.getErrorMessage());
+		assertEquals(expectChange, treeChanged);
+		assertEquals(treeChanged, streamChanged);
+		assertEquals(tree, NbtIo.read(new DataInputStream(new ByteArrayInputStream(streamed.toByteArray()))));
+		if (expectChange) {
+			assertTrue(tree.toString().contains(MOD_ID + ":new_"));
+		}
+	}
+
+	private static double throughput(int size, int rounds, long nanos) {
+		return (double) size * rounds / (1024 * 1024) / (nanos / 1e9);
+	}
+
+	private static byte[] write(CompoundTag tag) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NbtIo.write(tag, new DataOutputStream(out));
+		return out.toByteArray();
+	}
+
+	private static ListTag list(CompoundTag... tags) {
+		ListTag list = new ListTag();
+		list.addAll(List.of(tags));
+		return list;
+	}
+
+	private static CompoundTag block(String name) {
+		CompoundTag tag = new CompoundTag();
+		tag.putString("Name", name);
+		CompoundTag properties = new CompoundTag();
+		properties.putString("facing", "north");
+		tag.put("Properties", properties);
+		return tag;
+	}
+
+	private static CompoundTag section(String paletteKey, String... names) {
+		ListTag palette = new ListTag();
+		for (String name : names) {
+			palette.add(block(name));
+		}
+		CompoundTag section = new CompoundTag();
+		section.putByte("Y", (byte) 0);
+		if (paletteKey.equals("Palette")) {
+			section.put("Palette", palette);
+			section.putLongArray("BlockStates", new long[]{7, 8});
+		}
+		else {
+			CompoundTag blockStates = new CompoundTag();
+			blockStates.put("palette", palette);
+			section.put("block_states", blockStates);
+		}
+		return section;
+	}
+
+	private static CompoundTag item(String id) {
+		CompoundTag tag = new CompoundTag();
+		tag.putString("id", id);
+		tag.putByte("Count", (byte) 1);
+		return tag;
+	}
+
+	private static CompoundTag chest(String id, CompoundTag... items) {
+		CompoundTag tag = new CompoundTag();
+		tag.putString("id", id);
+		tag.put("Items", list(items));
+		return tag;
+	}
+
+	/**
+	 * An item that carries block entity data (like a shulker box) with its own items
+	 */
+	private static CompoundTag shulker(CompoundTag... items) {
+		CompoundTag tag = item("minecraft:shulker_box");
+		CompoundTag itemTag = new CompoundTag();
+		itemTag.put("BlockEntityTag", chest("minecraft:shulker_box", items));
+		tag.put("tag", itemTag);
+		return tag;
+	}
+}
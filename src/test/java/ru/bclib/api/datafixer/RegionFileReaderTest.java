@@ -0,0 +1,72 @@
+package ru.bclib.api.datafixer;
+
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionFileReaderTest {
+	@TempDir
+	Path folder;
+
+	@Test
+	void readsChunksWrittenByVanilla() throws IOException {
+		final Path path = folder.resolve("r.1.-2.mca");
+		final byte[] small = randomBytes(100, 1);
+		//larger than 255 sectors, so vanilla stores it in an external file
+		final byte[] large = randomBytes(1200 * 1024, 2);
+		try (RegionFile region = new RegionFile(path, folder, true)) {
+			write(region, new ChunkPos(3, 5), small);
+			write(region, new ChunkPos(32 + 7, -64 + 9), large);
+		}
+		final byte[] before = Files.readAllBytes(path);
+
+		try (RegionFileReader reader = new RegionFileReader(path)) {
+			assertTrue(reader.hasChunk(new ChunkPos(3, 5)));
+			assertArrayEquals(small, reader.readChunk(new ChunkPos(3, 5)));
+			assertArrayEquals(large, reader.readChunk(new ChunkPos(7, 9)));
+			assertFalse(reader.hasChunk(new ChunkPos(0, 0)));
+			assertNull(reader.readChunk(new ChunkPos(0, 0)));
+		}
+		assertArrayEquals(before, Files.readAllBytes(path));
+	}
+
+	@Test
+	void doesNotChangeIncompleteFiles() throws IOException {
+		final Path path = folder.resolve("r.0.0.mca");
+		final byte[] content = randomBytes(1000, 3);
+		Files.write(path, content);
+
+		try (RegionFileReader reader = new RegionFileReader(path)) {
+			for (int x = 0; x < 32; x++) {
+				for (int z = 0; z < 32; z++) {
+					assertNull(reader.readChunk(new ChunkPos(x, z)));
+				}
+			}
+		}
+		assertArrayEquals(content, Files.readAllBytes(path));
+	}
+
+	static void write(RegionFile region, ChunkPos pos, byte[] data) throws IOException {
+		try (DataOutputStream output = region.getChunkDataOutputStream(pos)) {
+			output.write(data);
+		}
+	}
+
+	private static byte[] randomBytes(int size, long seed) {
+		final byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
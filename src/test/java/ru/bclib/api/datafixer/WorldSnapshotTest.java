@@ -0,0 +1,29 @@
+package ru.bclib.api.datafixer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldSnapshotTest {
+	@TempDir
+	Path folder;
+
+	@Test
+	void deletesIncompleteSnapshots() throws IOException {
+		final Path world = folder.resolve("world");
+		Files.createDirectories(world.resolve("region"));
+		Files.write(world.resolve("level.dat"), new byte[]{1, 2, 3});
+		Files.write(world.resolve("region").resolve("r.0.0.mca"), new byte[]{4, 5, 6});
+
+		assertThrows(IllegalStateException.class, () -> WorldSnapshot.create(world.toFile(), file -> {
+			throw new IllegalStateException("Unable to read " + file);
+		}));
+		assertTrue(WorldSnapshot.getSnapshots(world.toFile()).isEmpty());
+	}
+}
@@ -0,0 +1,254 @@
+package ru.bclib.api.surface.rules;
+
+import com.mojang.serialization.Codec;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.SurfaceRules;
+import net.minecraft.world.level.levelgen.SurfaceRules.BiomeConditionSource;
+import net.minecraft.world.level.levelgen.SurfaceRules.Context;
+import net.minecraft.world.level.levelgen.SurfaceRules.RuleSource;
+import net.minecraft.world.level.levelgen.SurfaceRules.SequenceRuleSource;
+import net.minecraft.world.level.levelgen.SurfaceRules.SurfaceRule;
+import net.minecraft.world.level.levelgen.SurfaceRules.TestRuleSource;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class BiomeDispatchRuleSourceTest {
+	private static final ResourceKey<Registry<Biome>> BIOME_REGISTRY = ResourceKey.createRegistryKey(new ResourceLocation("worldgen/biome"));
+	private static final int BIOME_COUNT = 64;
+	private static final int COLUMN_HEIGHT = 16;
+
+	/**
+	 * Counts how often it was evaluated and never places a block, so every rule of a sequence is evaluated.
+	 */
+	private static class CountingRule implements SurfaceRule {
+		final int[] counts;
+		final int index;
+
+		CountingRule(int[] counts, int index) {
+			this.counts = counts;
+			this.index = index;
+		}
+
+		@Nullable
+		@Override
+		public BlockState tryApply(int x, int y, int z) {
+			counts[index]++;
+			return null;
+		}
+	}
+
+	/**
+	 * A leaf of a rule tree. Its result only depends on its id and the position, so two trees can be compared by
+	 * {@link #evaluate(RuleSource, ResourceKey, int)} without a {@link Context}.
+	 */
+	private record Leaf(int id) implements RuleSource {
+		@Nullable
+		Integer result(int position) {
+			//leaves do not place a block at every position, so later rules of a sequence are reached as well
+			return (id * 31 + position) % 3 == 0 ? null : id;
+		}
+
+		@Override
+		public Codec<? extends RuleSource> codec() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public SurfaceRule apply(Context context) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ResourceKey<Biome>[] createBiomes(int count) {
+		ResourceKey<Biome>[] biomes = new ResourceKey[count];
+		for (int i = 0; i < count; i++) {
+			biomes[i] = ResourceKey.create(BIOME_REGISTRY, new ResourceLocation("bclib_test", "biome_" + i));
+		}
+		return biomes;
+	}
+
+	@Test
+	void followsBiomeChangesAfterBinding() {
+		final ResourceKey<Biome>[] biomes = createBiomes(BIOME_COUNT);
+		final int[] counts = new int[BIOME_COUNT];
+		final Map<ResourceKey<Biome>, SurfaceRule> rules = new IdentityHashMap<>();
+		for (int i = 0; i < BIOME_COUNT; i++) {
+			rules.put(biomes[i], new CountingRule(counts, i));
+		}
+
+		//the rule is bound once, while the biome changes for every position
+		final ResourceKey<Biome>[] current = new ResourceKey[1];
+		final SurfaceRule dispatch = new BiomeDispatchRuleSource.Dispatch(() -> current[0], rules);
+		current[0] = biomes[3];
+		dispatch.tryApply(0, 0, 0);
+		current[0] = biomes[7];
+		dispatch.tryApply(0, 1, 0);
+		dispatch.tryApply(0, 2, 0);
+		current[0] = ResourceKey.create(BIOME_REGISTRY, new ResourceLocation("bclib_test", "unknown"));
+		dispatch.tryApply(0, 3, 0);
+
+		final int[] expected = new int[BIOME_COUNT];
+		expected[3] = 1;
+		expected[7] = 2;
+		assertArrayEquals(expected, counts);
+	}
+
+	@Test
+	void compiledRulesMatchSequence() {
+		final ResourceKey<Biome>[] biomes = createBiomes(20);
+		final ResourceKey<Biome> unknown = ResourceKey.create(BIOME_REGISTRY, new ResourceLocation("bclib_test", "unknown"));
+		final Random random = new Random(0);
+
+		for (int round = 0; round < 50; round++) {
+			//biome rules (some for two biomes), interrupted by rules that apply to every biome
+			final List<RuleSource> rules = new ArrayList<>();
+			final int count = 1 + random.nextInt(40);
+			for (int i = 0; i < count; i++) {
+				final Leaf leaf = new Leaf(i);
+				final int kind = random.nextInt(10);
+				if (kind == 0) {
+					rules.add(leaf);
+				}
+				else if (kind == 1) {
+					rules.add(SurfaceRules.ifTrue(SurfaceRules.isBiome(biomes[random.nextInt(biomes.length)], biomes[random.nextInt(biomes.length)]), leaf));
+				}
+				else {
+					rules.add(SurfaceRules.ifTrue(SurfaceRules.isBiome(biomes[random.nextInt(biomes.length)]), leaf));
+				}
+			}
+
+			final RuleSource original = SurfaceRules.sequence(rules.toArray(new RuleSource[0]));
+			final List<RuleSource> compiledRules = BiomeDispatchRuleSource.compile(rules);
+			final RuleSource compiled = SurfaceRules.sequence(compiledRules.toArray(new RuleSource[0]));
+			assertTrue(compiledRules.stream().noneMatch(r -> r instanceof TestRuleSource), "all biome rules are compiled");
+
+			for (int position = 0; position < 6; position++) {
+				for (ResourceKey<Biome> biome : biomes) {
+					assertEquals(evaluate(original, biome, position), evaluate(compiled, biome, position), "round " + round + ", " + biome.location() + ", position " + position);
+				}
+				assertEquals(evaluate(original, unknown, position), evaluate(compiled, unknown, position), "round " + round + ", unknown biome, position " + position);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a rule tree the way the bound {@link SurfaceRule}s would.
+	 *
+	 * @return The id of the {@link Leaf} that places the block, {@code null} if no rule applies
+	 */
+	@Nullable
+	private static Integer evaluate(RuleSource rule, ResourceKey<Biome> biome, int position) {
+		if (rule instanceof Leaf leaf) {
+			return leaf.result(position);
+		}
+		if (rule instanceof TestRuleSource test && test.ifTrue() instanceof BiomeConditionSource condition) {
+			return condition.biomes.contains(biome) ? evaluate(test.thenRun(), biome, position) : null;
+		}
+		if (rule instanceof SequenceRuleSource sequence) {
+			for (RuleSource entry : sequence.sequence()) {
+				final Integer result = evaluate(entry, biome, position);
+				if (result != null) return result;
+			}
+			return null;
+		}
+		if (rule instanceof BiomeDispatchRuleSource dispatch) {
+			final RuleSource biomeRule = dispatch.biomeRules().get(biome);
+			return biomeRule == null ? null : evaluate(biomeRule, biome, position);
+		}
+		return fail("Unexpected rule " + rule);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {10, 50, 100, 200})
+	@Tag("benchmark")
+	void benchmarkDispatchAgainstSequence(int biomeCount) {
+		final ResourceKey<Biome>[] biomes = createBiomes(biomeCount);
+		final int[] sequenceCounts = new int[biomeCount];
+		final int[] dispatchCounts = new int[biomeCount];
+		final SurfaceRule[] sequenceRules = new SurfaceRule[biomeCount];
+		final Map<ResourceKey<Biome>, SurfaceRule> dispatchRules = new IdentityHashMap<>();
+		for (int i = 0; i < biomeCount; i++) {
+			sequenceRules[i] = new CountingRule(sequenceCounts, i);
+			dispatchRules.put(biomes[i], new CountingRule(dispatchCounts, i));
+		}
+
+		final ResourceKey<Biome>[] current = new ResourceKey[1];
+		//the original sequence tests the biome condition of every entry
+		final SurfaceRule sequence = (x, y, z) -> {
+			for (int i = 0; i < biomeCount; i++) {
+				if (biomes[i] == current[0]) {
+					BlockState state = sequenceRules[i].tryApply(x, y, z);
+					if (state != null) return state;
+				}
+			}
+			return null;
+		};
+		final SurfaceRule dispatch = new BiomeDispatchRuleSource.Dispatch(() -> current[0], dispatchRules);
+
+		//a column set are the 16x16 columns of a chunk, every column is evaluated for COLUMN_HEIGHT blocks
+		final int columnSets = 500;
+		final int positions = columnSets * 256 * COLUMN_HEIGHT;
+		final int[] biomeAt = new int[columnSets * 256];
+		final Random random = new Random(0);
+		for (int i = 0; i < biomeAt.length; i++) {
+			biomeAt[i] = random.nextInt(biomeCount);
+		}
+
+		for (int round = 0; round < 5; round++) {
+			final long sequenceTime = run(sequence, biomes, biomeAt, current);
+			final long dispatchTime = run(dispatch, biomes, biomeAt, current);
+			System.out.println(String.format(
+				Locale.ROOT,
+				"Round %d, %d biomes: sequence %.1f us/column set, dispatch %.1f us/column set",
+				round,
+				biomeCount,
+				sequenceTime / 1000.0 / columnSets,
+				dispatchTime / 1000.0 / columnSets
+			));
+		}
+		assertArrayEquals(sequenceCounts, dispatchCounts);
+		assertEquals(5 * positions, sum(dispatchCounts));
+	}
+
+	/**
+	 * Evaluates the rule for every block of the columns, the biome changes from column to column.
+	 */
+	private static long run(SurfaceRule rule, ResourceKey<Biome>[] biomes, int[] biomeAt, ResourceKey<Biome>[] current) {
+		final long start = System.nanoTime();
+		for (int column = 0; column < biomeAt.length; column++) {
+			current[0] = biomes[biomeAt[column]];
+			for (int y = 0; y < COLUMN_HEIGHT; y++) {
+				rule.tryApply(column & 15, y, (column >> 4) & 15);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static int sum(int[] values) {
+		int sum = 0;
+		for (int value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,66 @@
+package ru.bclib.api.surface.rules;
+
+import net.minecraft.world.level.levelgen.SurfaceRules.SurfaceRule;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SwitchRuleSourceTest {
+	private static final int RULE_COUNT = 8;
+
+	@Test
+	void tryApplyDoesNotAllocate() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean threads) || !threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("Thread allocation counters are not available, skipping.");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final int[] counts = new int[RULE_COUNT];
+		final SurfaceRule[] rules = new SurfaceRule[RULE_COUNT];
+		for (int i = 0; i < RULE_COUNT; i++) {
+			final int index = i;
+			rules[i] = (x, y, z) -> {
+				counts[index]++;
+				return null;
+			};
+		}
+		//the selector does not need the context, the bound rule is tested without a world
+		final int[] selected = new int[1];
+		final SurfaceRule rule = new SwitchRuleSource.Switch(context -> selected[0]++, null, rules);
+
+		final int positions = 1_000_000;
+		//warm up, so the measurement does not include class loading or compilation
+		apply(rule, positions);
+
+		final long threadId = Thread.currentThread().getId();
+		final long before = threads.getThreadAllocatedBytes(threadId);
+		apply(rule, positions);
+		final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		//a single allocation per block would be several megabytes, the counter itself may allocate a few bytes
+		assertTrue(allocated < 1024, "tryApply allocated " + allocated + " bytes for " + positions + " blocks");
+		assertEquals(2 * positions, sum(counts));
+		for (int count : counts) {
+			assertEquals(2 * positions / RULE_COUNT, count);
+		}
+	}
+
+	private static void apply(SurfaceRule rule, int positions) {
+		for (int i = 0; i < positions; i++) {
+			rule.tryApply(i & 15, i >> 8, (i >> 4) & 15);
+		}
+	}
+
+	private static int sum(int[] values) {
+		int sum = 0;
+		for (int value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+}